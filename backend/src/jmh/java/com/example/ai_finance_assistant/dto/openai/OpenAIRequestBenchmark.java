@@ -0,0 +1,72 @@
+package com.example.ai_finance_assistant.dto.openai;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+
+import com.example.ai_finance_assistant.service.OpenAIRequestEncoder;
+
+import io.netty.buffer.PooledByteBufAllocator;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+
+//serializing the request body we send upstream every turn, with a full-size system prompt and growing history:
+//jackson from scratch against the encoder that copies in the pre-encoded prefix and writes the rest into a pooled buffer
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OpenAIRequestBenchmark {
+
+    @Param({"0", "8", "24"})
+    public int historyMessages;
+
+    private final ObjectMapper objectMapper = JsonMapper.builder().build();
+    private final OpenAIRequestEncoder encoder = new OpenAIRequestEncoder();
+    private final NettyDataBufferFactory pooledBuffers = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+    private OpenAIRequest request;
+
+    @Setup
+    public void setUp() {
+        List<OpenAIMessage> messages = new ArrayList<>();
+        messages.add(new OpenAIMessage("system", "You are an expert Finance Tutor. Only address finance-related topics. ".repeat(12)));
+        for (int i = 0; i < historyMessages; i++) {
+            messages.add(i % 2 == 0
+                    ? new OpenAIMessage("user", "How does a Roth IRA differ from a traditional IRA?")
+                    : new OpenAIMessage("assistant", "1. **Taxes**: contributions are made with after-tax dollars...\n".repeat(10)));
+        }
+        messages.add(new OpenAIMessage("user", "What is compound interest?"));
+        request = new OpenAIRequest("gpt-4o-mini", messages, 500, true, new OpenAIRequest.StreamOptions(true));
+    }
+
+    @Benchmark
+    public byte[] writeValueAsBytes() {
+        return objectMapper.writeValueAsBytes(request);
+    }
+
+    @Benchmark
+    public int encodeWithCachedPrefix() {
+        DataBuffer buffer = encoder.encode(request, pooledBuffers);
+        int size = buffer.readableByteCount();
+        DataBufferUtils.release(buffer);
+        return size;
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.ai_finance_assistant.repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.example.ai_finance_assistant.Application;
+import com.example.ai_finance_assistant.entity.Conversation;
+import com.example.ai_finance_assistant.entity.Message;
+
+//per-turn history read cost as a conversation grows: the token-budgeted tail query vs the old load-all-then-truncate.
+//runs against the docker-compose Postgres from application-dev.properties, pass
+//-jvmArgs "-Dbench.datasource.url=... -Dbench.datasource.username=... -Dbench.datasource.password=..." in jmh.args to point it somewhere else.
+//every trial uses its own conversation and deletes it afterwards
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageRepositoryBenchmark {
+
+    private static final int MAX_TOKENS = 1500;
+    private static final int TOKENS_PER_MESSAGE = 60;
+
+    @Param({"10", "1000", "10000"})
+    public int storedMessages;
+
+    private ConfigurableApplicationContext context;
+    private MessageRepository messageRepository;
+    private ConversationRepository conversationRepository;
+    private Long conversationId;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        context = new SpringApplicationBuilder(Application.class)
+                .web(WebApplicationType.NONE)
+                .run("--spring.datasource.url=" + System.getProperty("bench.datasource.url", "jdbc:postgresql://localhost:5432/finance-assistant"),
+                        "--spring.datasource.username=" + System.getProperty("bench.datasource.username", "postgres"),
+                        "--spring.datasource.password=" + System.getProperty("bench.datasource.password", "postgres"),
+                        "--spring.jpa.show-sql=false",
+                        "--openai.api.key=benchmark",
+                        "--logging.level.root=WARN");
+        messageRepository = context.getBean(MessageRepository.class);
+        conversationRepository = context.getBean(ConversationRepository.class);
+        conversationId = conversationRepository.save(new Conversation(UUID.randomUUID())).getId();
+
+        //roughly a paragraph per message, like a real tutoring session
+        String content = "Compound interest is interest calculated on the initial principal and the accumulated interest. ".repeat(4);
+        LocalDateTime start = LocalDateTime.now().minusDays(1);
+        List<Object[]> rows = new ArrayList<>(storedMessages);
+        for (int i = 0; i < storedMessages; i++) {
+            rows.add(new Object[]{i % 2 == 0 ? "user" : "assistant", content, TOKENS_PER_MESSAGE,
+                    Timestamp.valueOf(start.plusSeconds(i)), conversationId});
+        }
+        context.getBean(JdbcTemplate.class).batchUpdate(
+                "INSERT INTO messages (role, content, tokens, created_at, conversation_id) VALUES (?, ?, ?, ?, ?)", rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.getBean(JdbcTemplate.class).update("DELETE FROM messages WHERE conversation_id = ?", conversationId);
+        conversationRepository.deleteById(conversationId);
+        context.close();
+    }
+
+    @Benchmark
+    public List<Message> tokenBudgetedTail() {
+        return messageRepository.findTokenBudgetedTail(conversationId, MAX_TOKENS, MAX_TOKENS);
+    }
+
+    //what FinanceService used to do on every turn
+    @Benchmark
+    public List<Message> loadAllThenTruncate() {
+        List<Message> history = messageRepository.findByConversationIdOrderByCreatedAtAsc(conversationId);
+        int totalTokens = history.stream().mapToInt(Message::getTokens).sum();
+
+        List<Message> truncated = new ArrayList<>(history);
+        while (totalTokens > MAX_TOKENS && truncated.size() > 1) {
+            totalTokens -= truncated.remove(0).getTokens();
+        }
+        return truncated;
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.ai_finance_assistant.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.example.ai_finance_assistant.entity.Message;
+
+//fitting a history into the token budget over synthetic histories of increasing length.
+//truncateHistory/calculateTotalTokens were replaced by ContextWindow, the old code is kept here as the baseline
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ContextWindowBenchmark {
+
+    private static final int MAX_TOKENS = 1500;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int historyLength;
+
+    private List<Message> history;
+    private Message next;
+
+    @Setup
+    public void setUp() {
+        history = new ArrayList<>(historyLength);
+        for (int i = 0; i < historyLength; i++) {
+            //short questions, longer answers
+            history.add(new Message(i % 2 == 0 ? "user" : "assistant", "message " + i, null, i % 2 == 0 ? 20 : 180));
+        }
+        next = new Message("user", "and what about taxes?", null, 12);
+    }
+
+    //the old per-turn path: sum everything, then remove(0) until it fits
+    @Benchmark
+    public List<Message> calculateTotalThenTruncate() {
+        int totalTokens = history.stream().mapToInt(Message::getTokens).sum();
+        List<Message> truncated = new ArrayList<>(history);
+        while (totalTokens > MAX_TOKENS && truncated.size() > 1) {
+            totalTokens -= truncated.remove(0).getTokens();
+        }
+        return truncated;
+    }
+
+    //what a cache miss does with whatever the db handed back
+    @Benchmark
+    public List<Message> buildContextWindow() {
+        return new ContextWindow(MAX_TOKENS, history).snapshot();
+    }
+
+    //a steady-state turn: one message appended to an already cached window
+    @Benchmark
+    public int appendToWindow(WindowState state) {
+        state.window.append(next);
+        return state.window.getTotalTokens();
+    }
+
+    @State(Scope.Thread)
+    public static class WindowState {
+        ContextWindow window;
+
+        @Setup
+        public void setUp(ContextWindowBenchmark benchmark) {
+            window = new ContextWindow(MAX_TOKENS, benchmark.history);
+        }
+    }
+}
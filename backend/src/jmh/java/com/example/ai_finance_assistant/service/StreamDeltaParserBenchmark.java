@@ -0,0 +1,93 @@
+package com.example.ai_finance_assistant.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.example.ai_finance_assistant.dto.openai.StreamDelta;
+
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+
+//per-frame cost of pulling the delta out of a streamed chunk: the old readValue into dto records vs the token-level parser.
+//run with -prof gc to compare gc.alloc.rate.norm (bytes allocated per frame)
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@OperationsPerInvocation(StreamDeltaParserBenchmark.FRAMES)
+public class StreamDeltaParserBenchmark {
+
+    static final int FRAMES = 64;
+
+    //the dto shape extractContent used to deserialize into
+    record LegacyStreamResponse(List<Choice> choices) {
+        record Choice(Delta delta) {}
+        record Delta(String content) {}
+    }
+
+    private final ObjectMapper objectMapper = JsonMapper.builder().build();
+    private StreamDeltaParser parser;
+    private String[] frames;
+    private byte[][] frameBytes;
+
+    @Setup
+    public void setUp() {
+        parser = new StreamDeltaParser(objectMapper);
+        frames = new String[FRAMES];
+        frameBytes = new byte[FRAMES][];
+
+        //recorded gpt-4o-mini chunks: one role chunk, short content deltas, a finish chunk
+        List<String> words = List.of(" Compound", " interest", " is", " interest", " on", " interest", ".", " **", "Formula", "**", ":", "\n");
+        for (int i = 0; i < FRAMES; i++) {
+            String delta = i == 0 ? "{\"role\":\"assistant\",\"content\":\"\",\"refusal\":null}"
+                    : i == FRAMES - 1 ? "{}"
+                    : "{\"content\":\"" + words.get(i % words.size()).replace("\n", "\\n") + "\"}";
+            frames[i] = "{\"id\":\"chatcmpl-AXb2jVjYw3Tf1cUqk8d0e9pX7hL4m\",\"object\":\"chat.completion.chunk\",\"created\":1732715800,"
+                    + "\"model\":\"gpt-4o-mini-2024-07-18\",\"service_tier\":\"default\",\"system_fingerprint\":\"fp_0705bf87c0\","
+                    + "\"choices\":[{\"index\":0,\"delta\":" + delta + ",\"logprobs\":null,\"finish_reason\":"
+                    + (i == FRAMES - 1 ? "\"stop\"" : "null") + "}],\"usage\":null}";
+            frameBytes[i] = frames[i].getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    //what OpenAIClient.extractContent used to do for every frame
+    @Benchmark
+    public void readValueIntoRecords(Blackhole bh) {
+        for (String frame : frames) {
+            LegacyStreamResponse response = objectMapper.readValue(frame, LegacyStreamResponse.class);
+            String content = "";
+            if (response.choices() != null && !response.choices().isEmpty()) {
+                LegacyStreamResponse.Delta delta = response.choices().get(0).delta();
+                if (delta != null && delta.content() != null) {
+                    content = delta.content();
+                }
+            }
+            bh.consume(content);
+        }
+    }
+
+    @Benchmark
+    public void tokenLevelParser(Blackhole bh) {
+        for (byte[] frame : frameBytes) {
+            StreamDelta delta = parser.parse(frame, 0, frame.length);
+            bh.consume(delta);
+        }
+    }
+
+}
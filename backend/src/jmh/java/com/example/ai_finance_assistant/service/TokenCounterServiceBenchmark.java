@@ -0,0 +1,65 @@
+package com.example.ai_finance_assistant.service;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.ModelType;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+//token counting across message sizes, from a one word delta to a long pasted question
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenCounterServiceBenchmark {
+
+    @Param({"8", "200", "2000", "20000"})
+    public int chars;
+
+    private TokenCounterService tokenCounterService;
+    private Encoding encoding;
+    private String text;
+
+    @Setup
+    public void setUp() {
+        tokenCounterService = new TokenCounterService(2_000_000, new SimpleMeterRegistry());
+        encoding = Encodings.newDefaultEncodingRegistry().getEncodingForModel(ModelType.GPT_4O_MINI);
+
+        String paragraph = "An **index fund** tracks a market index like the S&P 500, so fees stay low (often 0.03%-0.20%) "
+                + "and returns match the market minus costs. Compare: $10,000 at 7% for 30 years ~ $76,123.\n";
+        text = paragraph.repeat(chars / paragraph.length() + 1).substring(0, chars);
+    }
+
+    //what countTokens used to do
+    @Benchmark
+    public int encodeThenSize() {
+        return encoding.encode(text).size();
+    }
+
+    @Benchmark
+    public int countTokens() {
+        return tokenCounterService.countTokens(text);
+    }
+
+    //repeated input, served from the content cache
+    @Benchmark
+    public int countTokensCached() {
+        return tokenCounterService.countTokensCached(text);
+    }
+}
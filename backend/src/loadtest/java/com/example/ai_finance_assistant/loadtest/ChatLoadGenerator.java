@@ -0,0 +1,262 @@
+package com.example.ai_finance_assistant.loadtest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+//drives /api/chat/stream with concurrent multi-turn sessions and reports what a user would see (time to first token,
+//stream duration, throughput) next to what the server spent in the database, read from its actuator metrics.
+//meant to run against an instance that talks to OpenAIStubServer, so the numbers are about this service alone.
+//
+//options: --target=http://localhost:8080 --sessions=20 --turns=3 --think-time=0ms --script=<file, one message per line>
+//         --unique-messages=true (a session number in every message, otherwise the response cache and request
+//         coalescing answer most turns without going upstream)
+public final class ChatLoadGenerator {
+
+    private static final ParameterizedTypeReference<ServerSentEvent<String>> EVENT = new ParameterizedTypeReference<>() {};
+
+    private static final List<String> DEFAULT_SCRIPT = List.of(
+            "What is compound interest?",
+            "How is that different from simple interest?",
+            "Should I pay off my credit card or invest first?",
+            "What is an index fund?",
+            "How much should I keep in an emergency fund?",
+            "Can you summarize what we talked about?");
+
+    //the meters the report reads from /actuator/metrics, the database time is the sum of their total times
+    private static final List<String> DB_METERS = List.of("chat.persistence", "chat.write_behind.flush");
+
+    private final WebClient client;
+    private final JsonMapper json = JsonMapper.builder().build();
+    private final int sessions;
+    private final int turns;
+    private final Duration thinkTime;
+    private final List<String> script;
+    private final boolean uniqueMessages;
+
+    private final List<Long> firstTokenNanos = Collections.synchronizedList(new ArrayList<>());
+    private final List<Long> durationNanos = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong chars = new AtomicLong();
+    private final Map<String, AtomicLong> failures = new ConcurrentHashMap<>();
+
+    ChatLoadGenerator(LoadTestOptions options) throws IOException {
+        this.sessions = options.integer("sessions", 20);
+        this.turns = options.integer("turns", 3);
+        this.thinkTime = options.duration("think-time", Duration.ZERO);
+        String scriptFile = options.string("script", null);
+        this.script = scriptFile != null
+                ? Files.readAllLines(Path.of(scriptFile)).stream().filter(line -> !line.isBlank()).toList()
+                : DEFAULT_SCRIPT;
+        this.uniqueMessages = Boolean.parseBoolean(options.string("unique-messages", "true"));
+
+        //one connection per session, every turn holds its connection for the whole stream
+        ConnectionProvider connections = ConnectionProvider.builder("loadtest")
+                .maxConnections(sessions)
+                .pendingAcquireMaxCount(-1)
+                .build();
+        this.client = WebClient.builder()
+                .baseUrl(options.string("target", "http://localhost:8080"))
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create(connections)))
+                .build();
+    }
+
+    public static void main(String[] args) throws IOException {
+        new ChatLoadGenerator(new LoadTestOptions(args)).run();
+    }
+
+    void run(){
+        Map<String, double[]> dbBefore = dbTime();
+        long start = System.nanoTime();
+
+        Flux.range(0, sessions)
+                .flatMap(this::session, sessions)
+                .blockLast();
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Map<String, double[]> dbAfter = dbTime();
+        report(seconds, dbBefore, dbAfter);
+    }
+
+    private Mono<Void> session(int session){
+        String sessionId = UUID.randomUUID().toString();
+        return Flux.range(0, turns)
+                .concatMap(turn -> {
+                    String message = script.get(turn % script.size()) + (uniqueMessages ? " (session " + session + ")" : "");
+                    Mono<Void> think = turn > 0 && !thinkTime.isZero() ? Mono.delay(thinkTime).then() : Mono.empty();
+                    return think.then(turn(sessionId, message));
+                })
+                .then();
+    }
+
+    private Mono<Void> turn(String sessionId, String message){
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            long[] firstToken = {0};
+            return client.post()
+                    .uri("/api/chat/stream")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .accept(MediaType.TEXT_EVENT_STREAM)
+                    .bodyValue(Map.of("message", message, "sessionID", sessionId))
+                    .retrieve()
+                    .bodyToFlux(EVENT)
+                    .doOnNext(event -> {
+                        if(event.data() == null || event.data().isEmpty()){
+                            return;
+                        }
+                        if(firstToken[0] == 0){
+                            firstToken[0] = System.nanoTime();
+                        }
+                        events.incrementAndGet();
+                        chars.addAndGet(event.data().length());
+                    })
+                    .then(Mono.fromRunnable(() -> {
+                        long end = System.nanoTime();
+                        if(firstToken[0] == 0){
+                            fail("empty answer");
+                            return;
+                        }
+                        firstTokenNanos.add(firstToken[0] - start);
+                        durationNanos.add(end - start);
+                    }))
+                    .onErrorResume(e -> {
+                        fail(e instanceof WebClientResponseException response
+                                ? "HTTP " + response.getStatusCode().value()
+                                : e.getClass().getSimpleName());
+                        return Mono.empty();
+                    })
+                    .then();
+        });
+    }
+
+    private void fail(String reason){
+        failures.computeIfAbsent(reason, r -> new AtomicLong()).incrementAndGet();
+    }
+
+    //count and total time in ms per meter (and operation tag for chat.persistence), empty if the actuator can't be reached
+    private Map<String, double[]> dbTime(){
+        Map<String, double[]> times = new TreeMap<>();
+        for(String meter: DB_METERS){
+            JsonNode all = metric(meter, null);
+            if(all == null){
+                continue;
+            }
+            times.put(meter, measurements(all));
+            for(JsonNode tag: all.path("availableTags")){
+                if(!"operation".equals(tag.path("tag").asString())){
+                    continue;
+                }
+                for(JsonNode operation: tag.path("values")){
+                    JsonNode tagged = metric(meter, "operation:" + operation.asString());
+                    if(tagged != null){
+                        times.put(meter + " " + operation.asString(), measurements(tagged));
+                    }
+                }
+            }
+        }
+        return times;
+    }
+
+    private JsonNode metric(String name, String tag){
+        try{
+            String body = client.get()
+                    .uri(uri -> {
+                        uri.path("/actuator/metrics/{name}");
+                        if(tag != null){
+                            uri.queryParam("tag", tag);
+                        }
+                        return uri.build(name);
+                    })
+                    .retrieve()
+                    .bodyToMono(String.class)
+                    .block(Duration.ofSeconds(5));
+            return json.readTree(body);
+        }catch(RuntimeException e){
+            return null;
+        }
+    }
+
+    private static double[] measurements(JsonNode metric){
+        double count = 0;
+        double totalSeconds = 0;
+        for(JsonNode measurement: metric.path("measurements")){
+            switch(measurement.path("statistic").asString()){
+                case "COUNT" -> count = measurement.path("value").asDouble();
+                case "TOTAL_TIME" -> totalSeconds = measurement.path("value").asDouble();
+                default -> { }
+            }
+        }
+        //the actuator reports timers in seconds
+        return new double[]{count, totalSeconds * 1000};
+    }
+
+    private void report(double seconds, Map<String, double[]> dbBefore, Map<String, double[]> dbAfter){
+        long[] ttft = sorted(firstTokenNanos);
+        long[] duration = sorted(durationNanos);
+        long failed = failures.values().stream().mapToLong(AtomicLong::get).sum();
+
+        System.out.printf("%n%d sessions x %d turns in %.1f s%n", sessions, turns, seconds);
+        System.out.printf("turns          %d ok, %d failed %s%n", ttft.length, failed, failures.isEmpty() ? "" : failures);
+        System.out.printf("first token    p50 %s  p99 %s  max %s%n", millis(ttft, 0.50), millis(ttft, 0.99), millis(ttft, 1.0));
+        System.out.printf("stream         p50 %s  p99 %s  max %s%n", millis(duration, 0.50), millis(duration, 0.99), millis(duration, 1.0));
+        System.out.printf("throughput     %.1f turns/s, %.0f events/s, %.0f chars/s%n",
+                ttft.length / seconds, events.get() / seconds, chars.get() / seconds);
+
+        if(dbAfter.isEmpty()){
+            System.out.println("db             n/a (no /actuator/metrics on the target)");
+            return;
+        }
+        for(Map.Entry<String, double[]> meter: dbAfter.entrySet()){
+            double[] before = dbBefore.getOrDefault(meter.getKey(), new double[2]);
+            double count = meter.getValue()[0] - before[0];
+            double totalMillis = meter.getValue()[1] - before[1];
+            if(count <= 0){
+                continue;
+            }
+            System.out.printf("db %-38s %6.0f calls, mean %.2f ms, %.2f ms per turn%n", meter.getKey(), count,
+                    totalMillis / count, ttft.length > 0 ? totalMillis / ttft.length : 0);
+        }
+    }
+
+    private static long[] sorted(List<Long> samples){
+        long[] values;
+        synchronized(samples){
+            values = samples.stream().mapToLong(Long::longValue).toArray();
+        }
+        Arrays.sort(values);
+        return values;
+    }
+
+    //nearest rank
+    private static String millis(long[] sorted, double quantile){
+        if(sorted.length == 0){
+            return "-";
+        }
+        int rank = (int) Math.ceil(quantile * sorted.length);
+        return String.format("%.0f ms", sorted[Math.max(0, rank - 1)] / 1e6);
+    }
+}
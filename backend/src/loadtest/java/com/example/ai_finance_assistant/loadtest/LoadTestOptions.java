@@ -0,0 +1,42 @@
+package com.example.ai_finance_assistant.loadtest;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.boot.convert.DurationStyle;
+
+//--name=value command line options, durations in the same format as application.properties (300ms, 2s, 1m)
+final class LoadTestOptions {
+
+    private final Map<String, String> values = new HashMap<>();
+
+    LoadTestOptions(String[] args) {
+        for(String arg: args){
+            if(!arg.startsWith("--") || !arg.contains("=")){
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            int eq = arg.indexOf('=');
+            values.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+    }
+
+    String string(String name, String defaultValue){
+        return values.getOrDefault(name, defaultValue);
+    }
+
+    int integer(String name, int defaultValue){
+        String value = values.get(name);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    double decimal(String name, double defaultValue){
+        String value = values.get(name);
+        return value != null ? Double.parseDouble(value) : defaultValue;
+    }
+
+    Duration duration(String name, Duration defaultValue){
+        String value = values.get(name);
+        return value != null ? DurationStyle.detectAndParse(value) : defaultValue;
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.ai_finance_assistant.loadtest;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.reactivestreams.Publisher;
+
+import io.netty.handler.codec.http.HttpResponseStatus;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+import tools.jackson.databind.JsonNode;
+import tools.jackson.databind.json.JsonMapper;
+
+//a stand-in for the chat completions api, so the service can be load tested without paying for tokens.
+//streams chunks shaped like OpenAI's (role chunk, content deltas, finish chunk, usage chunk, [DONE]) at a configurable
+//time to first token and token rate, and can fail a share of requests with 500s, 429s or streams cut off halfway.
+//start the app with OPENAI_BASE_URL=http://localhost:<port>/v1 to use it.
+//
+//options: --port=8089 --ttft=400ms --ttft-jitter=100ms --tokens-per-second=50 --tokens=200
+//         --error-rate=0 --rate-limit-rate=0 --abort-rate=0 --requests-per-minute=100000 --tokens-per-minute=10000000
+public final class OpenAIStubServer {
+
+    private static final String[] WORDS = ("Compound interest is interest earned on both the original principal and "
+            + "the interest already added to it. Over long periods it makes savings grow exponentially, which is why "
+            + "starting early matters more than the amount you start with. A diversified index fund keeps costs low "
+            + "and spreads risk across many companies.").split(" ");
+
+    private final JsonMapper json = JsonMapper.builder().build();
+    private final AtomicLong requests = new AtomicLong();
+
+    private final Duration ttft;
+    private final Duration ttftJitter;
+    private final Duration tokenInterval;
+    private final int tokens;
+    private final double errorRate;
+    private final double rateLimitRate;
+    private final double abortRate;
+    private final long requestsPerMinute;
+    private final long tokensPerMinute;
+
+    OpenAIStubServer(LoadTestOptions options) {
+        this.ttft = options.duration("ttft", Duration.ofMillis(400));
+        this.ttftJitter = options.duration("ttft-jitter", Duration.ofMillis(100));
+        this.tokenInterval = Duration.ofNanos(1_000_000_000L / Math.max(1, options.integer("tokens-per-second", 50)));
+        this.tokens = options.integer("tokens", 200);
+        this.errorRate = options.decimal("error-rate", 0);
+        this.rateLimitRate = options.decimal("rate-limit-rate", 0);
+        this.abortRate = options.decimal("abort-rate", 0);
+        this.requestsPerMinute = options.integer("requests-per-minute", 100_000);
+        this.tokensPerMinute = options.integer("tokens-per-minute", 10_000_000);
+    }
+
+    public static void main(String[] args) {
+        LoadTestOptions options = new LoadTestOptions(args);
+        OpenAIStubServer stub = new OpenAIStubServer(options);
+        DisposableServer server = HttpServer.create()
+                .port(options.integer("port", 8089))
+                .route(routes -> routes
+                        .post("/v1/chat/completions", stub::chatCompletion)
+                        //the client prewarms its connections with a HEAD on /models
+                        .head("/v1/models", (request, response) -> stub.withRateLimitHeaders(response).send())
+                        .get("/v1/models", (request, response) -> stub.withRateLimitHeaders(response)
+                                .header("Content-Type", "application/json")
+                                .sendString(Mono.just("{\"object\":\"list\",\"data\":[]}"))))
+                .bindNow();
+        System.out.println("OpenAI stub listening on http://localhost:" + server.port() + "/v1");
+        server.onDispose().block();
+    }
+
+    private Publisher<Void> chatCompletion(HttpServerRequest request, HttpServerResponse response){
+        return request.receive().aggregate().asString(StandardCharsets.UTF_8).flatMapMany(body -> respond(body, response));
+    }
+
+    private Publisher<Void> respond(String body, HttpServerResponse response){
+        long id = requests.incrementAndGet();
+        JsonNode completionRequest = json.readTree(body);
+        if(!completionRequest.path("stream").asBoolean()){
+            return error(response, HttpResponseStatus.BAD_REQUEST, "invalid_request_error", "the stub only streams");
+        }
+
+        double roll = ThreadLocalRandom.current().nextDouble();
+        if(roll < rateLimitRate){
+            withRateLimitHeaders(response).header("x-ratelimit-remaining-requests", "0").header("retry-after", "1");
+            return error(response, HttpResponseStatus.TOO_MANY_REQUESTS, "rate_limit_exceeded", "Rate limit reached (injected)");
+        }
+        if(roll < rateLimitRate + errorRate){
+            return error(response, HttpResponseStatus.INTERNAL_SERVER_ERROR, "server_error", "The server had an error (injected)");
+        }
+        boolean abort = roll < rateLimitRate + errorRate + abortRate;
+
+        int maxTokens = completionRequest.path("max_tokens").asInt(tokens);
+        int completionTokens = Math.min(tokens, maxTokens);
+        boolean includeUsage = completionRequest.path("stream_options").path("include_usage").asBoolean();
+        String model = completionRequest.path("model").asString("gpt-4o-mini");
+
+        withRateLimitHeaders(response)
+                .header("Content-Type", "text/event-stream")
+                .header("Cache-Control", "no-cache");
+        return response.sendString(stream(id, model, completionTokens, completionTokens < tokens, includeUsage,
+                body.length() / 4, abort), StandardCharsets.UTF_8);
+    }
+
+    private Flux<String> stream(long id, String model, int completionTokens, boolean truncated, boolean includeUsage,
+                                int promptTokens, boolean abort){
+        String prefix = "data: {\"id\":\"chatcmpl-stub-" + id + "\",\"object\":\"chat.completion.chunk\",\"model\":\"" + model
+                + "\",\"choices\":[";
+        long jitter = ttftJitter.isZero() ? 0 : ThreadLocalRandom.current().nextLong(-ttftJitter.toMillis(), ttftJitter.toMillis() + 1);
+
+        Flux<String> role = Mono.delay(ttft.plusMillis(jitter))
+                .map(tick -> prefix + "{\"index\":0,\"delta\":{\"role\":\"assistant\",\"content\":\"\"},\"finish_reason\":null}]}\n\n")
+                .flux();
+        Flux<String> content = Flux.range(0, completionTokens)
+                .delayElements(tokenInterval)
+                .map(i -> prefix + "{\"index\":0,\"delta\":{\"content\":\"" + (i == 0 ? "" : " ") + WORDS[i % WORDS.length]
+                        + "\"},\"finish_reason\":null}]}\n\n");
+        if(abort){
+            //the connection drops halfway through the answer
+            return role.concatWith(content.take(completionTokens / 2))
+                    .concatWith(Mono.error(new IllegalStateException("stream aborted (injected)")));
+        }
+        Flux<String> finish = Flux.just(prefix + "{\"index\":0,\"delta\":{},\"finish_reason\":\""
+                + (truncated ? "length" : "stop") + "\"}]}\n\n");
+        Flux<String> usage = includeUsage
+                ? Flux.just("data: {\"id\":\"chatcmpl-stub-" + id + "\",\"object\":\"chat.completion.chunk\",\"choices\":[],"
+                        + "\"usage\":{\"prompt_tokens\":" + promptTokens + ",\"completion_tokens\":" + completionTokens
+                        + ",\"total_tokens\":" + (promptTokens + completionTokens) + "}}\n\n")
+                : Flux.empty();
+        return Flux.concat(role, content, finish, usage, Flux.just("data: [DONE]\n\n"));
+    }
+
+    private Mono<Void> error(HttpServerResponse response, HttpResponseStatus status, String type, String message){
+        return response.status(status)
+                .header("Content-Type", "application/json")
+                .sendString(Mono.just("{\"error\":{\"message\":\"" + message + "\",\"type\":\"" + type + "\"}}"))
+                .then();
+    }
+
+    //generous limits by default, the admission controller calibrates against these like it would against OpenAI's
+    private HttpServerResponse withRateLimitHeaders(HttpServerResponse response){
+        return response
+                .header("x-ratelimit-limit-requests", Long.toString(requestsPerMinute))
+                .header("x-ratelimit-remaining-requests", Long.toString(requestsPerMinute))
+                .header("x-ratelimit-limit-tokens", Long.toString(tokensPerMinute))
+                .header("x-ratelimit-remaining-tokens", Long.toString(tokensPerMinute));
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.ai_finance_assistant.config;
+
+import javax.sql.DataSource;
+
+import org.flywaydb.core.Flyway;
+import org.springframework.boot.jpa.autoconfigure.EntityManagerFactoryDependsOnPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+//runs the migrations in db/migration before jpa starts, so hibernate validates against the migrated schema.
+//wired by hand because boot's flyway auto-configuration isn't published for the milestone we're on
+@Configuration
+public class FlywayConfig {
+
+    @Bean(initMethod = "migrate")
+    public Flyway flyway(DataSource dataSource){
+        return Flyway.configure()
+                .dataSource(dataSource)
+                .locations("classpath:db/migration")
+                //databases ddl-auto created get a version 0 baseline, V1 is written to apply on top of them
+                .baselineOnMigrate(true)
+                .baselineVersion("0")
+                .load();
+    }
+
+    @Bean
+    public static EntityManagerFactoryDependsOnPostProcessor entityManagerFactoryDependsOnFlyway(){
+        return new EntityManagerFactoryDependsOnPostProcessor("flyway");
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.ai_finance_assistant.config;
+
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.example.ai_finance_assistant.service.AdmissionController;
+import com.example.ai_finance_assistant.service.ContextWindowCache;
+import com.example.ai_finance_assistant.service.ConversationIdCache;
+import com.example.ai_finance_assistant.service.ConversationSummarizer;
+import com.example.ai_finance_assistant.service.GenerationRegistry;
+import com.example.ai_finance_assistant.service.HedgingPolicy;
+import com.example.ai_finance_assistant.service.MessageArchiver;
+import com.example.ai_finance_assistant.service.OpenAIClient;
+import com.example.ai_finance_assistant.service.ResponseCache;
+import com.example.ai_finance_assistant.service.StreamDeltaParser;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+//meters for counters the components already keep, read when the registry is scraped so the hot path pays nothing extra
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MeterBinder cacheMetrics(ContextWindowCache contextWindowCache, ResponseCache responseCache,
+                                    ConversationIdCache conversationIdCache){
+        return registry -> {
+            bindCache(registry, "context-window", contextWindowCache, ContextWindowCache::stats, ContextWindowCache::size);
+            bindCache(registry, "conversation-id", conversationIdCache, ConversationIdCache::stats, ConversationIdCache::size);
+            bindCache(registry, "response", responseCache, ResponseCache::stats, ResponseCache::size);
+        };
+    }
+
+    //same names and tags micrometer's CaffeineCacheMetrics uses, from the stats the caches expose
+    private static <C> void bindCache(MeterRegistry registry, String name, C cache,
+                                      Function<C, CacheStats> stats, ToDoubleFunction<C> size){
+        FunctionCounter.builder("cache.gets", cache, c -> stats.apply(c).hitCount())
+                .tag("cache", name).tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("cache.gets", cache, c -> stats.apply(c).missCount())
+                .tag("cache", name).tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("cache.evictions", cache, c -> stats.apply(c).evictionCount())
+                .tag("cache", name)
+                .register(registry);
+        Gauge.builder("cache.size", cache, size)
+                .tag("cache", name)
+                .register(registry);
+    }
+
+    @Bean
+    public MeterBinder openAIMetrics(OpenAIClient openAIClient, StreamDeltaParser deltaParser, AdmissionController admissionController,
+                              OpenAIConnectionPoolMetrics poolMetrics, HedgingPolicy hedgingPolicy){
+        return registry -> {
+            FunctionCounter.builder("openai.requests.coalesced", openAIClient, OpenAIClient::getCoalescedRequestCount)
+                    .description("Requests that joined an identical one already in flight")
+                    .register(registry);
+            FunctionCounter.builder("openai.stream.malformed_frames", deltaParser, StreamDeltaParser::getMalformedFrameCount)
+                    .description("Stream frames skipped because they couldn't be parsed")
+                    .register(registry);
+
+            Gauge.builder("openai.admission.concurrency_limit", admissionController, AdmissionController::getConcurrencyLimit)
+                    .register(registry);
+            Gauge.builder("openai.admission.active", admissionController, AdmissionController::getActive)
+                    .register(registry);
+            Gauge.builder("openai.admission.queued", admissionController, AdmissionController::getQueued)
+                    .register(registry);
+            FunctionCounter.builder("openai.admission.rejected", admissionController, AdmissionController::getRejectedCount)
+                    .register(registry);
+
+            FunctionCounter.builder("openai.hedges", hedgingPolicy, HedgingPolicy::getSentCount)
+                    .description("Second calls sent because the first delta was slow")
+                    .tag("result", "sent")
+                    .register(registry);
+            FunctionCounter.builder("openai.hedges", hedgingPolicy, HedgingPolicy::getWonCount)
+                    .description("Second calls sent because the first delta was slow")
+                    .tag("result", "won")
+                    .register(registry);
+            FunctionCounter.builder("openai.hedges", hedgingPolicy, HedgingPolicy::getDeniedCount)
+                    .description("Second calls sent because the first delta was slow")
+                    .tag("result", "denied")
+                    .register(registry);
+
+            Gauge.builder("openai.pool.connections", poolMetrics, OpenAIConnectionPoolMetrics::getActive)
+                    .tag("state", "active")
+                    .register(registry);
+            Gauge.builder("openai.pool.connections", poolMetrics, OpenAIConnectionPoolMetrics::getIdle)
+                    .tag("state", "idle")
+                    .register(registry);
+            Gauge.builder("openai.pool.pending", poolMetrics, OpenAIConnectionPoolMetrics::getPending)
+                    .description("Requests waiting for a pooled connection")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder generationMetrics(GenerationRegistry generationRegistry){
+        return registry -> {
+            Gauge.builder("chat.generations.live", generationRegistry, GenerationRegistry::size)
+                    .description("Generations running or within their grace period")
+                    .register(registry);
+            FunctionCounter.builder("chat.generations.resumed", generationRegistry, GenerationRegistry::getResumedCount)
+                    .description("Streams picked up again with Last-Event-ID")
+                    .register(registry);
+            FunctionCounter.builder("chat.generations.abandoned", generationRegistry, GenerationRegistry::getAbandonedCount)
+                    .description("Generations cancelled upstream after nobody reconnected within the disconnect grace")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder summaryMetrics(ConversationSummarizer summarizer){
+        return registry -> {
+            FunctionCounter.builder("chat.summary.runs", summarizer, ConversationSummarizer::getSummarizationCount)
+                    .tag("outcome", "success")
+                    .register(registry);
+            FunctionCounter.builder("chat.summary.runs", summarizer, ConversationSummarizer::getFailureCount)
+                    .tag("outcome", "error")
+                    .register(registry);
+        };
+    }
+
+    @Bean
+    public MeterBinder archiveMetrics(MessageArchiver messageArchiver){
+        return registry -> {
+            FunctionCounter.builder("chat.archive.archived", messageArchiver, MessageArchiver::getArchivedCount)
+                    .description("Idle conversations moved to cold storage")
+                    .register(registry);
+            FunctionCounter.builder("chat.archive.rehydrated", messageArchiver, MessageArchiver::getRehydratedCount)
+                    .description("Archived conversations moved back on access")
+                    .register(registry);
+        };
+    }
+}
@@ -0,0 +1,56 @@
+package com.example.ai_finance_assistant.config;
+
+import java.net.SocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToIntFunction;
+
+import org.springframework.stereotype.Component;
+
+import reactor.netty.resources.ConnectionPoolMetrics;
+import reactor.netty.resources.ConnectionProvider;
+
+//live view of the OpenAI connection pool. reactor netty hands us one ConnectionPoolMetrics per remote address,
+//the getters add them up (in practice there's a single pool for api.openai.com)
+@Component
+public class OpenAIConnectionPoolMetrics implements ConnectionProvider.MeterRegistrar {
+
+    private final Map<String, ConnectionPoolMetrics> pools = new ConcurrentHashMap<>();
+
+    @Override
+    public void registerMetrics(String poolName, String id, SocketAddress remoteAddress, ConnectionPoolMetrics metrics){
+        pools.put(id + remoteAddress, metrics);
+    }
+
+    @Override
+    public void deRegisterMetrics(String poolName, String id, SocketAddress remoteAddress){
+        pools.remove(id + remoteAddress);
+    }
+
+    //connections currently carrying a request
+    public int getActive(){
+        return sum(ConnectionPoolMetrics::acquiredSize);
+    }
+
+    public int getIdle(){
+        return sum(ConnectionPoolMetrics::idleSize);
+    }
+
+    //requests waiting for a connection, anything above 0 for long means the pool is too small
+    public int getPending(){
+        return sum(ConnectionPoolMetrics::pendingAcquireSize);
+    }
+
+    public int getAllocated(){
+        return sum(ConnectionPoolMetrics::allocatedSize);
+    }
+
+    private int sum(ToIntFunction<ConnectionPoolMetrics> metric){
+        return pools.values().stream().mapToInt(metric).sum();
+    }
+
+    @Override
+    public String toString(){
+        return "active=" + getActive() + " idle=" + getIdle() + " pending=" + getPending();
+    }
+}
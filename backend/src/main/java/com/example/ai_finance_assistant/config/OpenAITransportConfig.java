@@ -0,0 +1,61 @@
+package com.example.ai_finance_assistant.config;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+
+import io.netty.channel.ChannelOption;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+//the http transport OpenAIClient talks through: a dedicated, sized connection pool instead of the shared defaults,
+//so a burst of long-lived streams can't quietly queue up behind each other
+@Configuration
+public class OpenAITransportConfig {
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider openAIConnectionProvider(
+            @Value("${app.openai.http.max-connections:100}") int maxConnections,
+            @Value("${app.openai.http.pending-acquire-max-count:500}") int pendingAcquireMaxCount,
+            @Value("${app.openai.http.pending-acquire-timeout:5s}") Duration pendingAcquireTimeout,
+            @Value("${app.openai.http.max-idle-time:30s}") Duration maxIdleTime,
+            @Value("${app.openai.http.max-life-time:5m}") Duration maxLifeTime,
+            @Value("${app.openai.http.evict-interval:30s}") Duration evictInterval,
+            OpenAIConnectionPoolMetrics poolMetrics){
+        return ConnectionProvider.builder("openai")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(pendingAcquireMaxCount)
+                .pendingAcquireTimeout(pendingAcquireTimeout)
+                //idle connections get closed before the server or a load balancer silently drops them
+                .maxIdleTime(maxIdleTime)
+                .maxLifeTime(maxLifeTime)
+                .evictInBackground(evictInterval)
+                //reuse the most recently used connection, the rest can go idle and get evicted
+                .lifo()
+                .metrics(true, () -> poolMetrics)
+                .build();
+    }
+
+    @Bean
+    public ReactorClientHttpConnector openAIConnector(
+            ConnectionProvider openAIConnectionProvider,
+            @Value("${app.openai.http.connect-timeout:5s}") Duration connectTimeout,
+            //max gap between reads of a response, streams send a chunk at least every few hundred ms
+            @Value("${app.openai.http.response-timeout:30s}") Duration responseTimeout,
+            @Value("${app.openai.http.http2:false}") boolean http2){
+        HttpClient httpClient = HttpClient.create(openAIConnectionProvider)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) connectTimeout.toMillis())
+                .responseTimeout(responseTimeout);
+        if(http2){
+            //many streams over a few connections, negotiated over tls (falls back to http/1.1 if the server won't)
+            httpClient = httpClient.protocol(HttpProtocol.H2, HttpProtocol.HTTP11).secure();
+        }
+        //load the event loop, native transport and dns resolver now instead of on the first user's request
+        httpClient.warmup().block();
+        return new ReactorClientHttpConnector(httpClient);
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.ai_finance_assistant.config;
+
+import java.time.Duration;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.r2dbc.core.DatabaseClient;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+
+//connection pool and DatabaseClient for app.persistence.mode=r2dbc, only created in that mode.
+//the pool is deliberately not a bean: boot backs off the jdbc DataSource when it sees a ConnectionFactory bean,
+//and jpa still serves everything outside the chat turn
+@Configuration
+@ConditionalOnProperty(name = "app.persistence.mode", havingValue = "r2dbc")
+public class R2dbcConfig implements DisposableBean {
+
+    private ConnectionPool connectionPool;
+
+    @Bean
+    public DatabaseClient databaseClient(@Value("${app.r2dbc.url}") String url,
+                                         @Value("${app.r2dbc.username:}") String username,
+                                         @Value("${app.r2dbc.password:}") String password,
+                                         @Value("${app.r2dbc.pool.initial-size:5}") int initialSize,
+                                         @Value("${app.r2dbc.pool.max-size:20}") int maxSize,
+                                         @Value("${app.r2dbc.pool.max-idle-time:30m}") Duration maxIdleTime){
+        ConnectionFactoryOptions.Builder options = ConnectionFactoryOptions.parse(url).mutate();
+        if(!username.isEmpty()){
+            options.option(ConnectionFactoryOptions.USER, username);
+        }
+        if(!password.isEmpty()){
+            options.option(ConnectionFactoryOptions.PASSWORD, password);
+        }
+        connectionPool = new ConnectionPool(ConnectionPoolConfiguration.builder(ConnectionFactories.get(options.build()))
+                .initialSize(initialSize)
+                .maxSize(maxSize)
+                .maxIdleTime(maxIdleTime)
+                .build());
+        return DatabaseClient.create(connectionPool);
+    }
+
+    @Override
+    public void destroy(){
+        if(connectionPool != null){
+            connectionPool.dispose();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.ai_finance_assistant.config;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
+import org.springframework.boot.context.metrics.buffering.StartupTimeline;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.metrics.StartupStep;
+import org.springframework.stereotype.Component;
+
+//one log line per startup with where the time to the first request went: the jvm before SpringApplication.run
+//(class loading, which a CDS archive cuts), the context refresh (bean definitions and instantiation, which AOT cuts)
+//and the slowest beans. the full timeline is at /actuator/startup
+@Component
+public class StartupTimings {
+
+    private static final Logger log = LoggerFactory.getLogger(StartupTimings.class);
+
+    private final int slowestBeans;
+
+    public StartupTimings(@Value("${app.startup.slowest-beans:5}") int slowestBeans) {
+        this.slowestBeans = slowestBeans;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void report(ApplicationReadyEvent event){
+        Instant jvmStart = Instant.ofEpochMilli(ManagementFactory.getRuntimeMXBean().getStartTime());
+        Duration toReady = Duration.between(jvmStart, Instant.now());
+        //only the main method sets up a buffering startup (not tests)
+        if(!(event.getApplicationContext().getApplicationStartup() instanceof BufferingApplicationStartup startup)){
+            log.info("Ready {} ms after the JVM started", toReady.toMillis());
+            return;
+        }
+
+        StartupTimeline timeline = startup.getBufferedTimeline();
+        Duration refresh = timeline.getEvents().stream()
+                .filter(step -> "spring.context.refresh".equals(step.getStartupStep().getName()))
+                .map(StartupTimeline.TimelineEvent::getDuration)
+                .findFirst()
+                .orElse(Duration.ZERO);
+        //instantiation times include the beans each one pulled in
+        List<String> slowest = timeline.getEvents().stream()
+                .filter(step -> "spring.beans.instantiate".equals(step.getStartupStep().getName()))
+                .sorted(Comparator.comparing(StartupTimeline.TimelineEvent::getDuration).reversed())
+                .limit(slowestBeans)
+                .map(step -> beanName(step.getStartupStep()) + " " + step.getDuration().toMillis() + " ms")
+                .toList();
+
+        log.info("Ready {} ms after the JVM started: {} ms before SpringApplication.run, {} ms context refresh{}. Slowest beans: {}",
+                toReady.toMillis(), Duration.between(jvmStart, timeline.getStartTime()).toMillis(), refresh.toMillis(),
+                Boolean.getBoolean("spring.aot.enabled") ? " (AOT)" : "", String.join(", ", slowest));
+    }
+
+    private static String beanName(StartupStep step){
+        return StreamSupport.stream(step.getTags().spliterator(), false)
+                .filter(tag -> "beanName".equals(tag.getKey()))
+                .map(StartupStep.Tag::getValue)
+                .collect(Collectors.joining());
+    }
+}
@@ -1,40 +1,171 @@
 package com.example.ai_finance_assistant.controller;
 
+import com.example.ai_finance_assistant.dto.BatchAnswer;
+import com.example.ai_finance_assistant.dto.BatchRequest;
 import com.example.ai_finance_assistant.dto.ChatRequest;
 import com.example.ai_finance_assistant.dto.ConversationDTO;
-import com.example.ai_finance_assistant.entity.Conversation;
-import com.example.ai_finance_assistant.entity.Message;
+import com.example.ai_finance_assistant.dto.HistoryPage;
+import com.example.ai_finance_assistant.dto.SearchHit;
+import com.example.ai_finance_assistant.dto.SearchPage;
 import com.example.ai_finance_assistant.service.FinanceService;
+import com.example.ai_finance_assistant.service.GenerationRegistry;
+import com.example.ai_finance_assistant.service.MessageSearchService;
+import com.example.ai_finance_assistant.service.StreamCoalescer;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import reactor.core.publisher.Flux;
+import tools.jackson.databind.ObjectMapper;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/chat")
-@CrossOrigin(origins = "${app.frontend.url}")
+@CrossOrigin(origins = "${app.frontend.url}", exposedHeaders = {"ETag", ChatController.NEXT_CURSOR_HEADER, ChatController.SEARCH_CAPPED_HEADER})
 public class ChatController {
+    static final String NEXT_CURSOR_HEADER = "X-Next-Cursor";
+    static final String SEARCH_CAPPED_HEADER = "X-Search-Capped";
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_SEARCH_PAGE_SIZE = 100;
+    //flush the ndjson stream every this many rows
+    private static final int STREAM_FLUSH_ROWS = 100;
+
     private final FinanceService financeService;
+    private final ObjectMapper objectMapper;
+    private final StreamCoalescer streamCoalescer;
+    private final GenerationRegistry generationRegistry;
+    private final MessageSearchService messageSearchService;
 
-    public ChatController(FinanceService financeService) {
+    public ChatController(FinanceService financeService, ObjectMapper objectMapper, StreamCoalescer streamCoalescer,
+                          GenerationRegistry generationRegistry, MessageSearchService messageSearchService) {
         this.financeService = financeService;
+        this.objectMapper = objectMapper;
+        this.streamCoalescer = streamCoalescer;
+        this.generationRegistry = generationRegistry;
+        this.messageSearchService = messageSearchService;
     }
 
 
+    //every event carries an id ("<generation>:<seq>"). the answer keeps generating if the connection drops,
+    //posting again with that id as Last-Event-ID continues after it rather than asking for a new answer
     @PostMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
-    public Flux<String> chatStream(@RequestBody ChatRequest request){
-        return financeService.getResponseStream(request.message(), request.sessionID());
+    public Flux<ServerSentEvent<String>> chatStream(@RequestBody ChatRequest request,
+                                                    @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId){
+        if(lastEventId != null && !lastEventId.isBlank()){
+            return generationRegistry.resume(request.sessionID(), lastEventId);
+        }
+        //fewer, bigger events: every event is a write and a flush
+        return generationRegistry.start(request.sessionID(),
+                streamCoalescer.coalesce(financeService.getResponseStream(request.message(), request.sessionID())));
+    }
+
+    //many questions in one call, answered a few sessions at a time. each answer is a line of json written as soon as
+    //it's done, so lines come in finishing order (index says which question a line answers)
+    @PostMapping(value = "/batch", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<BatchAnswer> chatBatch(@RequestBody BatchRequest request){
+        return financeService.answerBatch(request.questions());
     }
 
+    //one page of history, oldest first. the cursor for the next page comes back in the X-Next-Cursor header
+    //(no header on the last page), and an unchanged conversation answers If-None-Match with a 304
     @GetMapping("/history/{sessionId}")
-    public List<ConversationDTO> getConversation(@PathVariable String sessionId){
-        Conversation conversation = financeService.findOrCreateConversation(sessionId);
-        List<Message> messages = financeService.loadConversationHistory(conversation.getId());
+    public ResponseEntity<List<ConversationDTO>> getConversation(@PathVariable String sessionId,
+                                                                 @RequestParam(required = false) String cursor,
+                                                                 @RequestParam(defaultValue = "200") int limit,
+                                                                 WebRequest webRequest){
+        //reading history never creates a conversation
+        Optional<Long> conversationId = financeService.findConversationId(sessionId);
+        if(conversationId.isEmpty()){
+            return ResponseEntity.ok(List.of());
+        }
+
+        String eTag = financeService.historyETag(conversationId.get());
+        if(webRequest.checkNotModified(eTag)){
+            return null;
+        }
+
+        HistoryPage page = financeService.loadConversationHistoryPage(conversationId.get(), cursor,
+                Math.max(1, Math.min(limit, MAX_PAGE_SIZE)));
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok().eTag(eTag);
+        if(page.nextCursor() != null){
+            response.header(NEXT_CURSOR_HEADER, page.nextCursor());
+        }
+        return response.body(page.messages());
+    }
+
+    //messages of one conversation matching q (websearch syntax: "a phrase", or, -word), best match first.
+    //paged like the history: the next page's cursor comes back in the X-Next-Cursor header
+    @GetMapping("/history/{sessionId}/search")
+    public ResponseEntity<List<SearchHit>> searchConversation(@PathVariable String sessionId, @RequestParam String q,
+                                                              @RequestParam(required = false) String cursor,
+                                                              @RequestParam(defaultValue = "20") int limit){
+        Optional<Long> conversationId = financeService.findConversationId(sessionId);
+        if(conversationId.isEmpty()){
+            return ResponseEntity.ok(List.of());
+        }
+        return searchResponse(messageSearchService.searchConversation(conversationId.get(), q, cursor, searchLimit(limit)));
+    }
+
+    //the same across every conversation, for admins (X-Admin-Token)
+    @GetMapping("/search")
+    public ResponseEntity<List<SearchHit>> searchAll(@RequestHeader(value = "X-Admin-Token", required = false) String adminToken,
+                                                     @RequestParam String q,
+                                                     @RequestParam(required = false) String cursor,
+                                                     @RequestParam(defaultValue = "20") int limit){
+        return searchResponse(messageSearchService.searchAll(adminToken, q, cursor, searchLimit(limit)));
+    }
+
+    private static int searchLimit(int limit){
+        return Math.max(1, Math.min(limit, MAX_SEARCH_PAGE_SIZE));
+    }
+
+    private static ResponseEntity<List<SearchHit>> searchResponse(SearchPage page){
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok();
+        if(page.nextCursor() != null){
+            response.header(NEXT_CURSOR_HEADER, page.nextCursor());
+        }
+        //only the newest app.search.max-candidates matches were ranked
+        if(page.capped()){
+            response.header(SEARCH_CAPPED_HEADER, "true");
+        }
+        return response.body(page.hits());
+    }
+
+    //the whole history as newline-delimited json, written row by row as it's read from the db
+    @GetMapping(value = "/history/{sessionId}/stream", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> streamConversation(@PathVariable String sessionId, WebRequest webRequest){
+        Optional<Long> conversationId = financeService.findConversationId(sessionId);
+        if(conversationId.isEmpty()){
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(out -> {});
+        }
+
+        String eTag = financeService.historyETag(conversationId.get());
+        if(webRequest.checkNotModified(eTag)){
+            return null;
+        }
 
-        return messages.stream()
-                .map(msg -> new ConversationDTO(msg.getRole(), msg.getContent(), msg.getCreatedAt()))
-                .toList();
+        StreamingResponseBody body = out -> {
+            int[] rows = {0};
+            financeService.forEachHistoryMessage(conversationId.get(), message -> {
+                try{
+                    out.write(objectMapper.writeValueAsBytes(message));
+                    out.write('\n');
+                    if(++rows[0] % STREAM_FLUSH_ROWS == 0){
+                        out.flush();
+                    }
+                }catch(IOException e){
+                    throw new UncheckedIOException(e);
+                }
+            });
+            out.flush();
+        };
+        return ResponseEntity.ok().eTag(eTag).contentType(MediaType.APPLICATION_NDJSON).body(body);
     }
 
 }
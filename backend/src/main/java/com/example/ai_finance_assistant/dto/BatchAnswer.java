@@ -0,0 +1,24 @@
+package com.example.ai_finance_assistant.dto;
+
+import com.example.ai_finance_assistant.entity.MessageStatus;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+//one line of the /api/chat/batch response. lines come in the order answers finish, index is the question's position
+//in the request. a question that couldn't be answered has an error instead of an answer
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record BatchAnswer(
+        int index,
+        String sessionID,
+        String answer,
+        Integer tokens,
+        MessageStatus status,
+        String error
+) {
+    public static BatchAnswer answered(int index, String sessionID, String answer, int tokens, MessageStatus status){
+        return new BatchAnswer(index, sessionID, answer, tokens, status, null);
+    }
+
+    public static BatchAnswer failed(int index, String sessionID, String error){
+        return new BatchAnswer(index, sessionID, null, null, null, error);
+    }
+}
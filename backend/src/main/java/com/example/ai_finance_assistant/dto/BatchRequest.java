@@ -0,0 +1,11 @@
+package com.example.ai_finance_assistant.dto;
+
+import java.util.List;
+
+//questions for /api/chat/batch. one with a sessionID is a turn of that conversation (a session's questions are answered
+//in the order given), one without is answered on its own and not saved
+public record BatchRequest(
+        List<Question> questions
+) {
+    public record Question(String message, String sessionID) {}
+}
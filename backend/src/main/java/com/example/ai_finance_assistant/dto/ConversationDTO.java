@@ -2,9 +2,18 @@ package com.example.ai_finance_assistant.dto;
 
 import java.time.LocalDateTime;
 
+import com.example.ai_finance_assistant.entity.MessageStatus;
+
 public record ConversationDTO(
         String role,
         String content,
-        LocalDateTime timeStamp
+        LocalDateTime timeStamp,
+        MessageStatus status
 ) {
+    public ConversationDTO {
+        //rows from before statuses were stored
+        if (status == null) {
+            status = MessageStatus.COMPLETE;
+        }
+    }
 }
@@ -0,0 +1,17 @@
+package com.example.ai_finance_assistant.dto;
+
+import java.time.LocalDateTime;
+
+//a conversation's rolling summary: what it says, what it costs in the prompt,
+//and the created_at of the newest message folded into it (null if nothing has been summarized yet)
+public record ConversationSummary(
+        String text,
+        int tokens,
+        LocalDateTime summarizedUntil
+) {
+    public static final ConversationSummary EMPTY = new ConversationSummary(null, 0, null);
+
+    public boolean isEmpty(){
+        return text == null || text.isBlank();
+    }
+}
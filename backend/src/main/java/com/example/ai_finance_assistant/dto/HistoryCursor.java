@@ -0,0 +1,28 @@
+package com.example.ai_finance_assistant.dto;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+import com.example.ai_finance_assistant.exception.InvalidRequestException;
+
+//position in a conversation's history: the (created_at, id) of the last message a client has seen.
+//sent to clients as an opaque url-safe string
+public record HistoryCursor(LocalDateTime createdAt, Long id) {
+
+    public String encode(){
+        String raw = createdAt + "_" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static HistoryCursor decode(String cursor){
+        try{
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.lastIndexOf('_');
+            return new HistoryCursor(LocalDateTime.parse(raw.substring(0, separator)), Long.parseLong(raw.substring(separator + 1)));
+        }catch(IllegalArgumentException | DateTimeParseException | IndexOutOfBoundsException e){
+            throw new InvalidRequestException("Invalid history cursor: " + cursor);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.example.ai_finance_assistant.dto;
+
+import java.util.List;
+
+//one page of history, nextCursor is null on the last page
+public record HistoryPage(
+        List<ConversationDTO> messages,
+        String nextCursor
+) {
+}
@@ -0,0 +1,28 @@
+package com.example.ai_finance_assistant.dto;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import com.example.ai_finance_assistant.exception.InvalidRequestException;
+
+//position in a list of search hits: the (rank, id) of the last hit a client has seen, as an opaque url-safe string.
+//START sorts before every real hit (ranks are finite, ids smaller than Long.MAX_VALUE)
+public record SearchCursor(float rank, long id) {
+
+    public static final SearchCursor START = new SearchCursor(Float.POSITIVE_INFINITY, Long.MAX_VALUE);
+
+    public String encode(){
+        String raw = rank + "_" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static SearchCursor decode(String cursor){
+        try{
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.lastIndexOf('_');
+            return new SearchCursor(Float.parseFloat(raw.substring(0, separator)), Long.parseLong(raw.substring(separator + 1)));
+        }catch(IllegalArgumentException | IndexOutOfBoundsException e){
+            throw new InvalidRequestException("Invalid search cursor: " + cursor);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.ai_finance_assistant.dto;
+
+import java.time.LocalDateTime;
+
+//a message matching a search, snippet has the matched words in **bold**
+public record SearchHit(
+        String sessionID,
+        String role,
+        String snippet,
+        LocalDateTime timeStamp,
+        float rank
+) {
+}
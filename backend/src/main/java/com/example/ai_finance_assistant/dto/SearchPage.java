@@ -0,0 +1,12 @@
+package com.example.ai_finance_assistant.dto;
+
+import java.util.List;
+
+//one page of search hits, best first. nextCursor is null on the last page. capped when there were more matches than
+//app.search.max-candidates: the hits are the best of the newest ones then, not of all of them
+public record SearchPage(
+        List<SearchHit> hits,
+        String nextCursor,
+        boolean capped
+) {
+}
@@ -1,9 +1,16 @@
 package com.example.ai_finance_assistant.dto.openai;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.List;
 
+@JsonInclude(JsonInclude.Include.NON_NULL)
 public record OpenAIRequest(String model,
                             List<OpenAIMessage> messages,
                             Integer max_tokens,
-                            Boolean stream) {
+                            Boolean stream,
+                            StreamOptions stream_options) {
+
+    //include_usage makes the stream end with a chunk carrying the prompt/completion token counts
+    public record StreamOptions(Boolean include_usage) {}
 }
@@ -0,0 +1,16 @@
+package com.example.ai_finance_assistant.dto.openai;
+
+//what we actually need out of one streamed chat completion chunk (choices[0], plus usage on the final chunk)
+public record StreamDelta(String content, String finishReason, Usage usage) {
+
+    public StreamDelta(String content, String finishReason) {
+        this(content, finishReason, null);
+    }
+
+    public boolean hasContent(){
+        return content != null && !content.isEmpty();
+    }
+
+    //only sent when the request asks for it with stream_options.include_usage
+    public record Usage(int promptTokens, int completionTokens) {}
+}
@@ -20,6 +20,16 @@ public class Conversation {
     @Column(name = "created_at",nullable = false)
     private LocalDateTime createdAt;
 
+    //rolling summary of the messages that no longer fit in the context window, and the created_at of the newest one in it
+    @Column(columnDefinition = "TEXT")
+    private String summary;
+
+    @Column(name = "summary_tokens")
+    private Integer summaryTokens;
+
+    @Column(name = "summarized_until")
+    private LocalDateTime summarizedUntil;
+
     @OneToMany(mappedBy = "conversation", cascade = CascadeType.ALL)
     private List<Message> messages;
 
@@ -54,6 +64,30 @@ public class Conversation {
         this.createdAt = createdAt;
     }
 
+    public String getSummary() {
+        return summary;
+    }
+
+    public void setSummary(String summary) {
+        this.summary = summary;
+    }
+
+    public Integer getSummaryTokens() {
+        return summaryTokens;
+    }
+
+    public void setSummaryTokens(Integer summaryTokens) {
+        this.summaryTokens = summaryTokens;
+    }
+
+    public LocalDateTime getSummarizedUntil() {
+        return summarizedUntil;
+    }
+
+    public void setSummarizedUntil(LocalDateTime summarizedUntil) {
+        this.summarizedUntil = summarizedUntil;
+    }
+
     public List<Message> getMessages() {
         return messages;
     }
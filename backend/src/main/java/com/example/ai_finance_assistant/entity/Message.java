@@ -6,6 +6,7 @@ import java.time.LocalDateTime;
 
 
 @Entity
+//the (conversation_id, created_at, id) index behind the history and tail queries is created by the V1 migration
 @Table(name = "messages")
 public class Message {
 
@@ -21,6 +22,10 @@ public class Message {
 
     private Integer tokens;
 
+    @Enumerated(EnumType.STRING)
+    @Column(length = 16)
+    private MessageStatus status = MessageStatus.COMPLETE;
+
     @Column(name = "created_at", nullable = false)
     private LocalDateTime createdAt;
 
@@ -70,6 +75,14 @@ public class Message {
         this.tokens = tokens;
     }
 
+    public MessageStatus getStatus() {
+        return status != null ? status : MessageStatus.COMPLETE;
+    }
+
+    public void setStatus(MessageStatus status) {
+        this.status = status;
+    }
+
     public LocalDateTime getCreatedAt() {
         return createdAt;
     }
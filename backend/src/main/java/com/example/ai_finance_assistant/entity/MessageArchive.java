@@ -0,0 +1,67 @@
+package com.example.ai_finance_assistant.entity;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+
+
+//an archived conversation's messages, gzipped into one row (see MessageArchiver)
+@Entity
+@Table(name = "message_archive")
+public class MessageArchive {
+
+    @Id
+    @Column(name = "conversation_id")
+    private Long conversationId;
+
+    @Column(name = "message_count", nullable = false)
+    private int messageCount;
+
+    //size of the payload before compression
+    @Column(name = "raw_bytes", nullable = false)
+    private int rawBytes;
+
+    @Column(nullable = false)
+    private byte[] payload;
+
+    @Column(name = "last_message_at", nullable = false)
+    private LocalDateTime lastMessageAt;
+
+    @Column(name = "archived_at", nullable = false)
+    private LocalDateTime archivedAt;
+
+    public MessageArchive() {}
+
+    public MessageArchive(Long conversationId, int messageCount, int rawBytes, byte[] payload, LocalDateTime lastMessageAt) {
+        this.conversationId = conversationId;
+        this.messageCount = messageCount;
+        this.rawBytes = rawBytes;
+        this.payload = payload;
+        this.lastMessageAt = lastMessageAt;
+        this.archivedAt = LocalDateTime.now();
+    }
+
+    public Long getConversationId() {
+        return conversationId;
+    }
+
+    public int getMessageCount() {
+        return messageCount;
+    }
+
+    public int getRawBytes() {
+        return rawBytes;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    public LocalDateTime getLastMessageAt() {
+        return lastMessageAt;
+    }
+
+    public LocalDateTime getArchivedAt() {
+        return archivedAt;
+    }
+}
@@ -0,0 +1,9 @@
+package com.example.ai_finance_assistant.entity;
+
+//how a message ended: complete, cut off by max_tokens, or abandoned because the client went away mid-answer.
+//rows from before the column existed have no status and count as complete
+public enum MessageStatus {
+    COMPLETE,
+    TRUNCATED,
+    CANCELLED
+}
@@ -0,0 +1,8 @@
+package com.example.ai_finance_assistant.exception;
+
+//the caller isn't allowed to do this (an admin-only endpoint without the right token)
+public class ForbiddenException extends RuntimeException {
+    public ForbiddenException(String message){
+        super(message);
+    }
+}
@@ -0,0 +1,8 @@
+package com.example.ai_finance_assistant.exception;
+
+//a resume (Last-Event-ID) for a generation that is unknown, already evicted, or no longer has the chunks it asks for
+public class GenerationGoneException extends RuntimeException {
+    public GenerationGoneException(String message){
+        super(message);
+    }
+}
@@ -27,6 +27,16 @@ public class GlobalExceptionHandler {
         return buildErrorResponse(sue.getMessage(), HttpStatus.SERVICE_UNAVAILABLE);
     }
 
+    @ExceptionHandler(GenerationGoneException.class)
+    public ResponseEntity<Map<String, Object>> handleGenerationGoneException(GenerationGoneException gge){
+        return buildErrorResponse(gge.getMessage(), HttpStatus.GONE);
+    }
+
+    @ExceptionHandler(ForbiddenException.class)
+    public ResponseEntity<Map<String, Object>> handleForbiddenException(ForbiddenException fe){
+        return buildErrorResponse(fe.getMessage(), HttpStatus.FORBIDDEN);
+    }
+
     @ExceptionHandler(Exception.class)
     public ResponseEntity<Map<String, Object>> handleGenericException(Exception ex){
         return buildErrorResponse(ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
@@ -1,10 +1,17 @@
 package com.example.ai_finance_assistant.repository;
 
 
+import com.example.ai_finance_assistant.dto.ConversationSummary;
 import com.example.ai_finance_assistant.entity.Conversation;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 @Repository
@@ -12,4 +19,67 @@ public interface ConversationRepository extends JpaRepository<Conversation, Long
 
     //find conversation by sessionID
     Optional<Conversation> findBySessionId(UUID sessionID);
+
+    //just the id, without loading the conversation (and its summary)
+    @Query("SELECT c.id FROM Conversation c WHERE c.sessionId = :sessionId")
+    Optional<Long> findIdBySessionId(@Param("sessionId") UUID sessionId);
+
+    //find or create in one round trip: the insert does nothing when the session exists, and the select after it
+    //returns the existing id. empty only if a concurrent insert of the same session committed while this statement ran
+    //(the select's snapshot is older than that row), the caller looks it up again then
+    @Transactional
+    @Query(value = """
+            WITH inserted AS (
+                INSERT INTO conversations (session_id, created_at)
+                VALUES (:sessionId, :createdAt)
+                ON CONFLICT (session_id) DO NOTHING
+                RETURNING id
+            )
+            SELECT id FROM inserted
+            UNION ALL
+            SELECT id FROM conversations WHERE session_id = :sessionId
+            LIMIT 1
+            """, nativeQuery = true)
+    Optional<Long> upsertBySessionId(@Param("sessionId") UUID sessionId, @Param("createdAt") LocalDateTime createdAt);
+
+    //the rolling summary, without loading the conversation entity
+    @Query("""
+            SELECT new com.example.ai_finance_assistant.dto.ConversationSummary(c.summary, COALESCE(c.summaryTokens, 0), c.summarizedUntil)
+            FROM Conversation c
+            WHERE c.id = :conversationId
+            """)
+    Optional<ConversationSummary> findSummary(@Param("conversationId") Long conversationId);
+
+    @Modifying
+    @Transactional
+    @Query("""
+            UPDATE Conversation c
+            SET c.summary = :summary, c.summaryTokens = :summaryTokens, c.summarizedUntil = :summarizedUntil
+            WHERE c.id = :conversationId
+            """)
+    int updateSummary(@Param("conversationId") Long conversationId,
+                      @Param("summary") String summary,
+                      @Param("summaryTokens") int summaryTokens,
+                      @Param("summarizedUntil") LocalDateTime summarizedUntil);
+
+    //conversations whose newest message is older than idleSince, one index probe per conversation.
+    //archived ones have no messages left, so they don't come back
+    @Query(value = """
+            SELECT c.id FROM conversations c
+            CROSS JOIN LATERAL (
+                SELECT m.created_at FROM messages m
+                WHERE m.conversation_id = c.id
+                ORDER BY m.created_at DESC, m.id DESC
+                LIMIT 1
+            ) newest
+            WHERE newest.created_at < :idleSince
+            ORDER BY c.id
+            LIMIT :limit
+            """, nativeQuery = true)
+    List<Long> findIdleConversationIds(@Param("idleSince") LocalDateTime idleSince, @Param("limit") int limit);
+
+    //row lock on the conversation until the transaction ends. inserting a message takes a key share lock on it
+    //(the foreign key check), so while we hold this no message of the conversation can be written
+    @Query(value = "SELECT id FROM conversations WHERE id = :conversationId FOR UPDATE", nativeQuery = true)
+    Optional<Long> lockById(@Param("conversationId") Long conversationId);
 }
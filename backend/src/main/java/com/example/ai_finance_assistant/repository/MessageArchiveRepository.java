@@ -0,0 +1,9 @@
+package com.example.ai_finance_assistant.repository;
+
+import com.example.ai_finance_assistant.entity.MessageArchive;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface MessageArchiveRepository extends JpaRepository<MessageArchive, Long> {
+}
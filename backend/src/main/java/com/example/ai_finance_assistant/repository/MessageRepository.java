@@ -1,14 +1,198 @@
 package com.example.ai_finance_assistant.repository;
 
+import com.example.ai_finance_assistant.dto.ConversationDTO;
 import com.example.ai_finance_assistant.entity.Message;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
+//queries that map rows to Message name the entity's columns instead of *, so the search column (about as big as the
+//content itself) isn't read along with every row
 @Repository
 public interface MessageRepository extends JpaRepository<Message, Long> {
 
     //load all messages of a conversation by conversationId
     List<Message> findByConversationIdOrderByCreatedAtAsc(Long conversationId);
+
+    //the newest messages whose running token total fits in maxTokens (always at least the newest one), oldest first.
+    //walks backwards one (conversation_id, created_at, id) index probe at a time and stops as soon as the next older message
+    //would go over budget, so the rows read are bounded by the budget (and maxRows) instead of the conversation length
+    //(the r2dbc store runs the same query)
+    String TOKEN_BUDGETED_TAIL = """
+            WITH RECURSIVE tail (id, role, content, tokens, status, created_at, conversation_id, running_tokens, row_num) AS (
+                (SELECT m.id, m.role, m.content, m.tokens, m.status, m.created_at, m.conversation_id,
+                        m.tokens AS running_tokens, 1 AS row_num
+                 FROM messages m
+                 WHERE m.conversation_id = :conversationId
+                 ORDER BY m.created_at DESC, m.id DESC
+                 LIMIT 1)
+                UNION ALL
+                SELECT prev.id, prev.role, prev.content, prev.tokens, prev.status, prev.created_at, prev.conversation_id,
+                       tail.running_tokens + prev.tokens, tail.row_num + 1
+                FROM tail
+                JOIN messages prev ON prev.id = (
+                    SELECT older.id FROM messages older
+                    WHERE older.conversation_id = tail.conversation_id
+                      AND (older.created_at, older.id) < (tail.created_at, tail.id)
+                    ORDER BY older.created_at DESC, older.id DESC
+                    LIMIT 1)
+                WHERE tail.running_tokens + prev.tokens <= :maxTokens
+                  AND tail.row_num < :maxRows
+            )
+            SELECT id, role, content, tokens, status, created_at, conversation_id FROM tail ORDER BY created_at ASC, id ASC
+            """;
+
+    @Query(value = TOKEN_BUDGETED_TAIL, nativeQuery = true)
+    List<Message> findTokenBudgetedTail(@Param("conversationId") Long conversationId,
+                                        @Param("maxTokens") int maxTokens,
+                                        @Param("maxRows") int maxRows);
+
+    //keyset pagination over the (conversation_id, created_at, id) index: a page costs the same wherever it starts
+    @Query(value = """
+            SELECT id, role, content, tokens, status, created_at, conversation_id FROM messages
+            WHERE conversation_id = :conversationId
+            ORDER BY created_at ASC, id ASC
+            LIMIT :limit
+            """, nativeQuery = true)
+    List<Message> findHistoryPage(@Param("conversationId") Long conversationId, @Param("limit") int limit);
+
+    @Query(value = """
+            SELECT id, role, content, tokens, status, created_at, conversation_id FROM messages
+            WHERE conversation_id = :conversationId
+              AND (created_at, id) > (:createdAt, :id)
+            ORDER BY created_at ASC, id ASC
+            LIMIT :limit
+            """, nativeQuery = true)
+    List<Message> findHistoryPageAfter(@Param("conversationId") Long conversationId,
+                                       @Param("createdAt") LocalDateTime createdAt,
+                                       @Param("id") Long id,
+                                       @Param("limit") int limit);
+
+    //messages created strictly between two points in time, oldest first (the ones between a summary and the context window)
+    @Query(value = """
+            SELECT id, role, content, tokens, status, created_at, conversation_id FROM messages
+            WHERE conversation_id = :conversationId
+              AND created_at > :after
+              AND created_at < :before
+            ORDER BY created_at ASC, id ASC
+            LIMIT :maxRows
+            """, nativeQuery = true)
+    List<Message> findMessagesBetween(@Param("conversationId") Long conversationId,
+                                      @Param("after") LocalDateTime after,
+                                      @Param("before") LocalDateTime before,
+                                      @Param("maxRows") int maxRows);
+
+    //id of the newest message, changes whenever the conversation does (used as the history ETag)
+    @Query(value = """
+            SELECT id FROM messages
+            WHERE conversation_id = :conversationId
+            ORDER BY created_at DESC, id DESC
+            LIMIT 1
+            """, nativeQuery = true)
+    Optional<Long> findLatestMessageId(@Param("conversationId") Long conversationId);
+
+    //the whole history as dtos, read from a cursor in batches. dtos aren't managed entities,
+    //so the persistence context doesn't grow with the conversation. needs an open transaction while consumed
+    @Query("""
+            SELECT new com.example.ai_finance_assistant.dto.ConversationDTO(m.role, m.content, m.createdAt, m.status)
+            FROM Message m
+            WHERE m.conversation.id = :conversationId
+            ORDER BY m.createdAt ASC, m.id ASC
+            """)
+    @QueryHints({
+            @QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "200"),
+            @QueryHint(name = HibernateHints.HINT_READ_ONLY, value = "true")
+    })
+    Stream<ConversationDTO> streamHistory(@Param("conversationId") Long conversationId);
+
+    //full-text search: matches of a websearch-style query (quoted phrases, or, -word) best first, in keyset pages after
+    //(afterRank, afterId). ranking every match of a word in a large share of all messages would cost seconds, so only the
+    //newest maxCandidates matches are ranked. newest by id, so the candidates are the same for every page and the pages
+    //add up to one ordering; capped says whether older matches were left out.
+    //the tsquery is spelled out in the WHERE so the planner sees how common its words are: a common one walks the
+    //primary key backwards until it has the candidates, a rare one goes through the GIN index on content_tsv.
+    //ts_headline re-parses the content, so snippets are only built for the rows of the page
+    @Query(value = """
+            WITH query AS (SELECT websearch_to_tsquery('english', :query) AS q),
+            candidates AS (
+                SELECT m.id FROM messages m
+                WHERE m.conversation_id = :conversationId
+                  AND m.content_tsv @@ websearch_to_tsquery('english', :query)
+                ORDER BY m.id DESC
+                LIMIT :maxCandidates
+            ),
+            ranked AS (
+                SELECT m.id, m.conversation_id, m.role, m.created_at, ts_rank_cd(m.content_tsv, query.q) AS rank
+                FROM candidates JOIN messages m ON m.id = candidates.id, query
+            ),
+            page AS (
+                SELECT * FROM ranked
+                WHERE (rank, id) < (:afterRank, :afterId)
+                ORDER BY rank DESC, id DESC
+                LIMIT :limit
+            )
+            SELECT page.id, c.session_id AS sessionId, page.role, page.created_at AS createdAt, page.rank,
+                   ts_headline('english', m.content, query.q, :headlineOptions) AS snippet,
+                   (SELECT count(*) FROM candidates) >= :maxCandidates AS capped
+            FROM page
+            JOIN messages m ON m.id = page.id
+            JOIN conversations c ON c.id = page.conversation_id, query
+            ORDER BY page.rank DESC, page.id DESC
+            """, nativeQuery = true)
+    List<MessageSearchHit> searchConversation(@Param("conversationId") Long conversationId,
+                                              @Param("query") String query,
+                                              @Param("afterRank") float afterRank,
+                                              @Param("afterId") Long afterId,
+                                              @Param("limit") int limit,
+                                              @Param("maxCandidates") int maxCandidates,
+                                              @Param("headlineOptions") String headlineOptions);
+
+    //same, across every conversation
+    @Query(value = """
+            WITH query AS (SELECT websearch_to_tsquery('english', :query) AS q),
+            candidates AS (
+                SELECT m.id FROM messages m
+                WHERE m.content_tsv @@ websearch_to_tsquery('english', :query)
+                ORDER BY m.id DESC
+                LIMIT :maxCandidates
+            ),
+            ranked AS (
+                SELECT m.id, m.conversation_id, m.role, m.created_at, ts_rank_cd(m.content_tsv, query.q) AS rank
+                FROM candidates JOIN messages m ON m.id = candidates.id, query
+            ),
+            page AS (
+                SELECT * FROM ranked
+                WHERE (rank, id) < (:afterRank, :afterId)
+                ORDER BY rank DESC, id DESC
+                LIMIT :limit
+            )
+            SELECT page.id, c.session_id AS sessionId, page.role, page.created_at AS createdAt, page.rank,
+                   ts_headline('english', m.content, query.q, :headlineOptions) AS snippet,
+                   (SELECT count(*) FROM candidates) >= :maxCandidates AS capped
+            FROM page
+            JOIN messages m ON m.id = page.id
+            JOIN conversations c ON c.id = page.conversation_id, query
+            ORDER BY page.rank DESC, page.id DESC
+            """, nativeQuery = true)
+    List<MessageSearchHit> searchAll(@Param("query") String query,
+                                     @Param("afterRank") float afterRank,
+                                     @Param("afterId") Long afterId,
+                                     @Param("limit") int limit,
+                                     @Param("maxCandidates") int maxCandidates,
+                                     @Param("headlineOptions") String headlineOptions);
+
+    //every message of a conversation, once it's been archived
+    @Modifying
+    @Query(value = "DELETE FROM messages WHERE conversation_id = :conversationId", nativeQuery = true)
+    int deleteByConversationId(@Param("conversationId") Long conversationId);
 }
@@ -0,0 +1,16 @@
+package com.example.ai_finance_assistant.repository;
+
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+//a row of the full-text search queries in MessageRepository
+public interface MessageSearchHit {
+    Long getId();
+    UUID getSessionId();
+    String getRole();
+    LocalDateTime getCreatedAt();
+    Float getRank();
+    String getSnippet();
+    //the candidate cap was hit, older matches weren't ranked
+    Boolean getCapped();
+}
@@ -0,0 +1,267 @@
+package com.example.ai_finance_assistant.service;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+
+import com.example.ai_finance_assistant.exception.RateLimitException;
+
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+//keeps us under OpenAI's requests/tokens per minute instead of finding out from a 429.
+//a call needs a request, its estimated tokens and a concurrency slot. callers that can't get them right away wait
+//in a bounded FIFO queue, and are turned away early if their wait would run past the deadline.
+//the concurrency limit is AIMD: +1/limit per clean call, halved whenever we get throttled anyway
+@Component
+public class AdmissionController {
+
+    private static final Logger log = LoggerFactory.getLogger(AdmissionController.class);
+
+    private final TokenBucket requestBucket;
+    private final TokenBucket tokenBucket;
+    private final int maxQueued;
+    private final long maxWaitNanos;
+    private final int minConcurrency;
+    private final int maxConcurrency;
+
+    //guarded by this
+    private final ArrayDeque<Waiter> waiters = new ArrayDeque<>();
+    private double concurrencyLimit;
+    private int active;
+    private long nextDrainAt = Long.MAX_VALUE;
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    public AdmissionController(@Value("${app.admission.requests-per-minute:500}") long requestsPerMinute,
+                               @Value("${app.admission.tokens-per-minute:200000}") long tokensPerMinute,
+                               @Value("${app.admission.max-queued:200}") int maxQueued,
+                               @Value("${app.admission.max-wait:10s}") Duration maxWait,
+                               @Value("${app.admission.initial-concurrency:32}") int initialConcurrency,
+                               @Value("${app.admission.min-concurrency:1}") int minConcurrency,
+                               @Value("${app.admission.max-concurrency:256}") int maxConcurrency) {
+        long now = System.nanoTime();
+        this.requestBucket = new TokenBucket(requestsPerMinute, now);
+        this.tokenBucket = new TokenBucket(tokensPerMinute, now);
+        this.maxQueued = maxQueued;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.minConcurrency = minConcurrency;
+        this.maxConcurrency = maxConcurrency;
+        this.concurrencyLimit = initialConcurrency;
+    }
+
+    //a permit for one upstream call that will use about estimatedTokens (prompt + max_tokens), released by the caller.
+    //a permit nobody ends up receiving (the caller cancelled as it was granted) is released here
+    public Mono<Permit> acquire(int estimatedTokens){
+        return Mono.<Permit>create(sink -> {
+            Waiter waiter = new Waiter(sink, estimatedTokens, System.nanoTime() + maxWaitNanos);
+            boolean queued;
+            synchronized (this){
+                queued = waiters.size() < maxQueued;
+                if(queued){
+                    waiters.add(waiter);
+                }
+            }
+            if(!queued){
+                reject(waiter, "too many requests waiting");
+                return;
+            }
+            sink.onCancel(() -> {
+                synchronized (this){
+                    waiters.remove(waiter);
+                }
+                //already granted, but not handed over yet: the grant sees this and gives the slot back
+                waiter.settled.set(true);
+            });
+            drain();
+        })
+        //cancelled while the sink was completing, reactor discards the permit instead of delivering it
+        .doOnDiscard(Permit.class, Permit::unused);
+    }
+
+    //x-ratelimit-* headers come back on every response, including 429s
+    public void calibrate(HttpHeaders headers){
+        long requestLimit = header(headers, "x-ratelimit-limit-requests");
+        long requestsRemaining = header(headers, "x-ratelimit-remaining-requests");
+        long tokenLimit = header(headers, "x-ratelimit-limit-tokens");
+        long tokensRemaining = header(headers, "x-ratelimit-remaining-tokens");
+        if(requestLimit < 0 && requestsRemaining < 0 && tokenLimit < 0 && tokensRemaining < 0){
+            return;
+        }
+        synchronized (this){
+            long now = System.nanoTime();
+            requestBucket.calibrate(requestLimit, requestsRemaining, now);
+            tokenBucket.calibrate(tokenLimit, tokensRemaining, now);
+        }
+    }
+
+    private static long header(HttpHeaders headers, String name){
+        String value = headers.getFirst(name);
+        if(value == null){
+            return -1;
+        }
+        try{
+            return Long.parseLong(value.trim());
+        }catch(NumberFormatException e){
+            return -1;
+        }
+    }
+
+    //hand out whatever the buckets and the concurrency limit allow, in arrival order.
+    //sinks are completed outside the lock, a granted caller starts its request straight away
+    private void drain(){
+        List<Waiter> granted = new ArrayList<>();
+        List<Waiter> expired = new ArrayList<>();
+        long wakeUpIn = -1;
+
+        synchronized (this){
+            long now = System.nanoTime();
+            Waiter head;
+            while((head = waiters.peek()) != null){
+                if(active >= (int) concurrencyLimit){
+                    //a release will drain again, the timer is only for the deadline
+                    if(now >= head.deadline){
+                        expired.add(waiters.poll());
+                        continue;
+                    }
+                    wakeUpIn = head.deadline - now;
+                    break;
+                }
+                long wait = Math.max(requestBucket.nanosUntil(1, now), tokenBucket.nanosUntil(head.tokens, now));
+                if(wait == 0){
+                    requestBucket.take(1);
+                    tokenBucket.take(head.tokens);
+                    active++;
+                    granted.add(waiters.poll());
+                    continue;
+                }
+                //no point waiting if the budget won't be there before the deadline
+                if(now + wait > head.deadline){
+                    expired.add(waiters.poll());
+                    continue;
+                }
+                wakeUpIn = wait;
+                break;
+            }
+            if(wakeUpIn > 0 && now + wakeUpIn < nextDrainAt){
+                nextDrainAt = now + wakeUpIn;
+            }else{
+                wakeUpIn = -1;
+            }
+        }
+
+        if(wakeUpIn > 0){
+            Schedulers.parallel().schedule(() -> {
+                synchronized (this){
+                    nextDrainAt = Long.MAX_VALUE;
+                }
+                drain();
+            }, wakeUpIn, TimeUnit.NANOSECONDS);
+        }
+        for(Waiter waiter: granted){
+            Permit permit = new Permit(waiter.tokens);
+            //the slot was counted under the lock, a caller that cancelled since then would never release it
+            if(waiter.settled.compareAndSet(false, true)){
+                waiter.sink.success(permit);
+            }else{
+                permit.unused();
+            }
+        }
+        for(Waiter waiter: expired){
+            reject(waiter, "rate limit budget not available in time");
+        }
+    }
+
+    private void reject(Waiter waiter, String reason){
+        long count = rejected.incrementAndGet();
+        log.warn("Rejecting OpenAI call ({} so far): {}", count, reason);
+        waiter.sink.error(new RateLimitException("Too many requests right now. Please try again in a moment."));
+    }
+
+    private void release(Permit permit, boolean throttled, int usedTokens){
+        synchronized (this){
+            active--;
+            if(throttled){
+                concurrencyLimit = Math.max(minConcurrency, concurrencyLimit / 2);
+            }else{
+                concurrencyLimit = Math.min(maxConcurrency, concurrencyLimit + 1 / concurrencyLimit);
+            }
+            if(usedTokens >= 0 && usedTokens < permit.reservedTokens){
+                tokenBucket.refund(permit.reservedTokens - usedTokens);
+            }
+        }
+        drain();
+    }
+
+    //the call never went out: the slot and everything reserved for it go back, the concurrency limit stays as it is
+    private void releaseUnused(Permit permit){
+        synchronized (this){
+            active--;
+            requestBucket.refund(1);
+            tokenBucket.refund(permit.reservedTokens);
+        }
+        drain();
+    }
+
+    public synchronized int getConcurrencyLimit(){
+        return (int) concurrencyLimit;
+    }
+
+    public synchronized int getActive(){
+        return active;
+    }
+
+    public synchronized int getQueued(){
+        return waiters.size();
+    }
+
+    public long getRejectedCount(){
+        return rejected.get();
+    }
+
+    private record Waiter(MonoSink<Permit> sink, int tokens, long deadline, AtomicBoolean settled) {
+        Waiter(MonoSink<Permit> sink, int tokens, long deadline) {
+            this(sink, tokens, deadline, new AtomicBoolean());
+        }
+    }
+
+    //one admitted call, released exactly once whichever way it ends
+    public final class Permit {
+        private final int reservedTokens;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(int reservedTokens) {
+            this.reservedTokens = reservedTokens;
+        }
+
+        //usedTokens is what the response reported (prompt + completion), -1 if we don't know
+        public void complete(int usedTokens){
+            if(released.compareAndSet(false, true)){
+                release(this, false, usedTokens);
+            }
+        }
+
+        public void fail(Throwable error){
+            if(released.compareAndSet(false, true)){
+                release(this, error instanceof RateLimitException, -1);
+            }
+        }
+
+        private void unused(){
+            if(released.compareAndSet(false, true)){
+                releaseUnused(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.ai_finance_assistant.service;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import org.springframework.stereotype.Component;
+
+import com.example.ai_finance_assistant.entity.Message;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+
+//the chat turn's meters. a turn is timed from subscription to the end of the stream and tagged with where the answer
+//came from (upstream or the response cache) and how it ended (completed, error, cancelled when the client went away).
+//percentiles and histograms for these are configured under management.metrics.distribution.*
+@Component
+public class ChatMetrics {
+
+    static final String SOURCE_UPSTREAM = "upstream";
+    static final String SOURCE_CACHE = "cache";
+
+    private final MeterRegistry registry;
+
+    private final DistributionSummary historyRows;
+    private final DistributionSummary historyTokens;
+    private final Counter truncations;
+    private final Counter evictedMessages;
+    private final Counter evictedTokens;
+    private final Counter abandoned;
+    private final Counter abandonedPromptTokens;
+    private final Counter abandonedCompletionTokens;
+
+    public ChatMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        this.historyRows = DistributionSummary.builder("chat.history.rows")
+                .description("Messages in a context window loaded from the database")
+                .register(registry);
+        this.historyTokens = DistributionSummary.builder("chat.history.tokens")
+                .description("Tokens in a context window loaded from the database")
+                .baseUnit("tokens")
+                .register(registry);
+        this.truncations = Counter.builder("chat.context.truncations")
+                .description("Appends that pushed older messages out of a context window")
+                .register(registry);
+        this.evictedMessages = Counter.builder("chat.context.evicted.messages")
+                .description("Messages dropped from context windows")
+                .register(registry);
+        this.evictedTokens = Counter.builder("chat.context.evicted.tokens")
+                .description("Tokens dropped from context windows")
+                .baseUnit("tokens")
+                .register(registry);
+        this.abandoned = Counter.builder("chat.response.abandoned")
+                .description("Answers cancelled upstream because the client went away")
+                .register(registry);
+        this.abandonedPromptTokens = abandonedTokens("prompt");
+        this.abandonedCompletionTokens = abandonedTokens("completion");
+    }
+
+    private Counter abandonedTokens(String kind){
+        return Counter.builder("chat.response.abandoned.tokens")
+                .description("Tokens paid for in answers nobody received in full")
+                .baseUnit("tokens")
+                .tag("kind", kind)
+                .register(registry);
+    }
+
+    //state of one turn while its answer streams
+    public final class Turn {
+        private final long startNanos = System.nanoTime();
+        private volatile long firstTokenNanos;
+        private volatile String source = SOURCE_UPSTREAM;
+        private volatile int completionTokens;
+
+        void source(String source){
+            this.source = source;
+        }
+
+        void completionTokens(int tokens){
+            this.completionTokens = tokens;
+        }
+
+        private void onToken(){
+            if(firstTokenNanos == 0){
+                firstTokenNanos = System.nanoTime();
+                Timer.builder("chat.response.first_token")
+                        .description("Time from the start of a turn to the first streamed token")
+                        .tag("source", source)
+                        .register(registry)
+                        .record(firstTokenNanos - startNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void onEnd(SignalType signal, Throwable error){
+            long end = System.nanoTime();
+            String outcome = switch(signal){
+                case ON_COMPLETE -> "completed";
+                case ON_ERROR -> "error";
+                default -> "cancelled";
+            };
+            Timer.builder("chat.response.duration")
+                    .description("Time from the start of a turn to the end of its stream")
+                    .tag("source", source)
+                    .tag("outcome", outcome)
+                    .tag("exception", error != null ? error.getClass().getSimpleName() : "none")
+                    .register(registry)
+                    .record(end - startNanos, TimeUnit.NANOSECONDS);
+
+            //streaming speed once the first token is there, only meaningful for full answers
+            long streamingNanos = end - firstTokenNanos;
+            if(outcome.equals("completed") && firstTokenNanos != 0 && completionTokens > 0 && streamingNanos > 0){
+                DistributionSummary.builder("chat.response.tokens_per_second")
+                        .description("Completion tokens per second after the first token")
+                        .tag("source", source)
+                        .register(registry)
+                        .record(completionTokens * 1e9 / streamingNanos);
+            }
+        }
+    }
+
+    //time a turn's answer stream, the turn is created per subscription and handed to the pipeline that builds it
+    public Flux<String> timeTurn(Function<Turn, Flux<String>> pipeline){
+        return Flux.defer(() -> {
+            Turn turn = new Turn();
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            return pipeline.apply(turn)
+                    .doOnNext(token -> turn.onToken())
+                    .doOnError(error::set)
+                    .doFinally(signal -> turn.onEnd(signal, error.get()));
+        });
+    }
+
+    //latency of one persistence call (operation is a fixed name like load_tail), tagged by outcome
+    public <T> Mono<T> timePersistence(String operation, Mono<T> call){
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return call.doOnEach(signal -> {
+                if(signal.isOnComplete() || signal.isOnError()){
+                    recordPersistence(operation, signal.isOnError() ? "error" : "success", start);
+                }
+            }).doOnCancel(() -> recordPersistence(operation, "cancelled", start));
+        });
+    }
+
+    private void recordPersistence(String operation, String outcome, long startNanos){
+        Timer.builder("chat.persistence")
+                .description("Latency of the chat turn's database calls")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .register(registry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    //a context window that had to come from the database (cache hits are in the cache.gets meters)
+    void recordHistoryLoaded(List<Message> window){
+        historyRows.record(window.size());
+        int tokens = 0;
+        for(Message message: window){
+            tokens += message.getTokens() != null ? message.getTokens() : 0;
+        }
+        historyTokens.record(tokens);
+    }
+
+    //messages pushed out of a context window by an append
+    void recordEvicted(List<Message> evicted){
+        if(evicted.isEmpty()){
+            return;
+        }
+        truncations.increment();
+        evictedMessages.increment(evicted.size());
+        int tokens = 0;
+        for(Message message: evicted){
+            tokens += message.getTokens() != null ? message.getTokens() : 0;
+        }
+        evictedTokens.increment(tokens);
+    }
+
+    //an answer cancelled mid-stream: the prompt was billed, and so was what had been generated before the cancel
+    void recordAbandoned(int promptTokens, int completionTokens){
+        abandoned.increment();
+        abandonedPromptTokens.increment(promptTokens);
+        abandonedCompletionTokens.increment(completionTokens);
+    }
+}
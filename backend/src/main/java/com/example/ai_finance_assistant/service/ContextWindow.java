@@ -0,0 +1,47 @@
+package com.example.ai_finance_assistant.service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.example.ai_finance_assistant.entity.Message;
+
+//the token-budgeted tail of a conversation, kept in memory between turns
+final class ContextWindow {
+    private final int maxTokens;
+    private final ArrayDeque<Message> messages = new ArrayDeque<>();
+    private int totalTokens;
+
+    ContextWindow(int maxTokens, List<Message> history) {
+        this.maxTokens = maxTokens;
+        for(Message msg: history){
+            append(msg);
+        }
+    }
+
+    //add the newest message and drop the oldest ones until we are back under budget (always keep at least one).
+    //returns what was dropped, oldest first
+    synchronized List<Message> append(Message message){
+        messages.addLast(message);
+        totalTokens += message.getTokens();
+
+        List<Message> evicted = List.of();
+        while(totalTokens > maxTokens && messages.size() > 1){
+            if(evicted.isEmpty()){
+                evicted = new ArrayList<>();
+            }
+            Message oldest = messages.removeFirst();
+            totalTokens -= oldest.getTokens();
+            evicted.add(oldest);
+        }
+        return evicted;
+    }
+
+    synchronized List<Message> snapshot(){
+        return List.copyOf(messages);
+    }
+
+    synchronized int getTotalTokens(){
+        return totalTokens;
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.ai_finance_assistant.service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Function;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.example.ai_finance_assistant.entity.Message;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import reactor.core.publisher.Mono;
+
+//keeps the context window of active conversations in memory so a turn doesn't have to re-read history from the db
+@Component
+public class ContextWindowCache {
+
+    private final Cache<Long, ContextWindow> windows;
+
+    public ContextWindowCache(@Value("${app.context-cache.max-size:10000}") long maxSize,
+                              @Value("${app.context-cache.idle-timeout:30m}") Duration idleTimeout) {
+        this.windows = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterAccess(idleTimeout)
+                .recordStats()
+                .build();
+    }
+
+    //get the window for a conversation, the loader only runs on a miss.
+    //if two turns load the same window at once, the first one to finish is kept
+    Mono<List<Message>> getWindow(Long conversationId, Function<Long, Mono<ContextWindow>> loader){
+        return Mono.defer(() -> {
+            ContextWindow cached = windows.getIfPresent(conversationId);
+            if(cached != null){
+                return Mono.just(cached.snapshot());
+            }
+            return loader.apply(conversationId).map(loaded -> {
+                ContextWindow existing = windows.asMap().putIfAbsent(conversationId, loaded);
+                return (existing != null ? existing : loaded).snapshot();
+            });
+        });
+    }
+
+    //keep a cached window in step with a saved message, windows that aren't cached get loaded on their next turn.
+    //returns the messages that dropped out of the window to make room
+    List<Message> append(Long conversationId, Message message){
+        //asMap().get doesn't count as a hit or miss, so the stats only reflect real lookups
+        ContextWindow window = windows.asMap().get(conversationId);
+        return window != null ? window.append(message) : List.of();
+    }
+
+    public void evict(Long conversationId){
+        windows.invalidate(conversationId);
+    }
+
+    public CacheStats stats(){
+        return windows.stats();
+    }
+
+    public long size(){
+        return windows.estimatedSize();
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.ai_finance_assistant.service;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import reactor.core.publisher.Mono;
+
+//sessionId -> conversation id of recent sessions, so resolving the session of a turn usually doesn't touch the db.
+//a session's conversation never changes once created (conversations aren't deleted, archiving only moves their messages),
+//so entries can't go stale and only need bounding
+@Component
+public class ConversationIdCache {
+
+    private final Cache<UUID, Long> ids;
+
+    public ConversationIdCache(@Value("${app.conversation-id-cache.max-size:100000}") long maxSize) {
+        this.ids = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+    }
+
+    //the loader only runs on a miss, what it finds is remembered
+    Mono<Long> get(UUID sessionId, Function<UUID, Mono<Long>> loader){
+        return Mono.defer(() -> {
+            Long cached = ids.getIfPresent(sessionId);
+            if(cached != null){
+                return Mono.just(cached);
+            }
+            return loader.apply(sessionId).doOnNext(id -> ids.put(sessionId, id));
+        });
+    }
+
+    //blocking variant for lookups that may not find anything (an unknown session isn't cached)
+    Optional<Long> find(UUID sessionId, Supplier<Optional<Long>> loader){
+        Long cached = ids.getIfPresent(sessionId);
+        if(cached != null){
+            return Optional.of(cached);
+        }
+        Optional<Long> loaded = loader.get();
+        loaded.ifPresent(id -> ids.put(sessionId, id));
+        return loaded;
+    }
+
+    public CacheStats stats(){
+        return ids.stats();
+    }
+
+    public long size(){
+        return ids.estimatedSize();
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.ai_finance_assistant.service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import com.example.ai_finance_assistant.dto.ConversationSummary;
+import com.example.ai_finance_assistant.entity.Message;
+
+import reactor.core.publisher.Mono;
+
+//the persistence a chat turn needs, as non-blocking calls. app.persistence.mode picks the implementation:
+//jpa (default) runs the existing repositories off the request thread, r2dbc talks to the db reactively end to end
+public interface ConversationStore {
+
+    Mono<Long> findOrCreateConversationId(UUID sessionId);
+
+    //newest messages that fit in maxTokens (the newest one always does), oldest first
+    Mono<List<Message>> findTokenBudgetedTail(Long conversationId, int maxTokens, int maxRows);
+
+    Mono<Void> saveMessage(Long conversationId, Message message);
+
+    //empty summary if there is none yet
+    Mono<ConversationSummary> findSummary(Long conversationId);
+
+    Mono<Void> saveSummary(Long conversationId, ConversationSummary summary);
+
+    //messages created strictly between after and before, oldest first
+    Mono<List<Message>> findMessagesBetween(Long conversationId, LocalDateTime after, LocalDateTime before, int maxRows);
+}
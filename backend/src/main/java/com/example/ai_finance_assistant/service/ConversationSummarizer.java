@@ -0,0 +1,284 @@
+package com.example.ai_finance_assistant.service;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.example.ai_finance_assistant.dto.ConversationSummary;
+import com.example.ai_finance_assistant.dto.openai.OpenAIMessage;
+import com.example.ai_finance_assistant.dto.openai.OpenAIRequest;
+import com.example.ai_finance_assistant.dto.openai.StreamDelta;
+import com.example.ai_finance_assistant.entity.Message;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import reactor.core.publisher.Mono;
+
+//folds the messages that drop out of a conversation's context window into a rolling summary, so old context
+//isn't just lost. evicted messages pile up per conversation until they're worth a call (min-evicted-tokens),
+//then one summarization runs in the background, never on the response path
+@Component
+public class ConversationSummarizer {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversationSummarizer.class);
+
+    static final String SUMMARY_PROMPT =
+            "You keep a running summary of a conversation between a user and a finance tutor. " +
+            "Rewrite the current summary so it also covers the new messages. Keep what the tutor needs later: " +
+            "the user's goals and situation, numbers they gave, decisions made and topics already explained. " +
+            "Plain text, no preamble, at most 150 words.";
+
+    //lower bound for the catch-up query when nothing has been summarized yet
+    private static final LocalDateTime BEGINNING = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    private final boolean enabled;
+    private final ConversationStore conversationStore;
+    private final OpenAIClient openAIClient;
+    private final TokenCounterService tokenCounterService;
+    private final int minEvictedTokens;
+    private final int summaryMaxTokens;
+    private final int catchUpRows;
+    private final String model;
+
+    private final Duration retryDelay;
+    private final Duration maxRetryDelay;
+
+    private final Cache<Long, ConversationSummary> summaries;
+    private final Cache<Long, Pending> pending;
+    private final AtomicLong summarizations = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public ConversationSummarizer(ConversationStore conversationStore, OpenAIClient openAIClient,
+                                  TokenCounterService tokenCounterService,
+                                  @Value("${app.summary.enabled:true}") boolean enabled,
+                                  @Value("${app.summary.min-evicted-tokens:300}") int minEvictedTokens,
+                                  @Value("${app.summary.max-tokens:300}") int summaryMaxTokens,
+                                  @Value("${app.summary.catch-up-rows:200}") int catchUpRows,
+                                  @Value("${app.summary.model:gpt-4o-mini}") String model,
+                                  @Value("${app.summary.retry-delay:30s}") Duration retryDelay,
+                                  @Value("${app.summary.max-retry-delay:10m}") Duration maxRetryDelay,
+                                  @Value("${app.context-cache.max-size:10000}") long cacheMaxSize,
+                                  @Value("${app.context-cache.idle-timeout:30m}") Duration cacheIdleTimeout) {
+        this.conversationStore = conversationStore;
+        this.openAIClient = openAIClient;
+        this.tokenCounterService = tokenCounterService;
+        this.enabled = enabled;
+        this.minEvictedTokens = minEvictedTokens;
+        this.summaryMaxTokens = summaryMaxTokens;
+        this.catchUpRows = catchUpRows;
+        this.model = model;
+        this.retryDelay = retryDelay;
+        this.maxRetryDelay = maxRetryDelay;
+        //same lifetime as the context windows they go with
+        this.summaries = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfterAccess(cacheIdleTimeout)
+                .build();
+        //so are the evicted messages waiting to be summarized. one that goes (too little to summarize, or failing for
+        //longer than the idle timeout) isn't lost, catchUp queues it again from the db when the window is next loaded
+        this.pending = Caffeine.newBuilder()
+                .maximumSize(cacheMaxSize)
+                .expireAfterAccess(cacheIdleTimeout)
+                .build();
+    }
+
+    public boolean isEnabled(){
+        return enabled;
+    }
+
+    //the summary to put in front of the history, cached after the first read
+    public Mono<ConversationSummary> getSummary(Long conversationId){
+        if(!enabled){
+            return Mono.just(ConversationSummary.EMPTY);
+        }
+        ConversationSummary cached = summaries.getIfPresent(conversationId);
+        if(cached != null){
+            return Mono.just(cached);
+        }
+        return conversationStore.findSummary(conversationId)
+                .doOnNext(summary -> summaries.asMap().putIfAbsent(conversationId, summary));
+    }
+
+    //messages that just dropped out of the context window, oldest first
+    public void onEvicted(Long conversationId, List<Message> evicted){
+        if(!enabled || evicted.isEmpty()){
+            return;
+        }
+        Pending state = pending.get(conversationId, id -> new Pending());
+        synchronized (state){
+            for(Message message: evicted){
+                state.add(message);
+            }
+        }
+        maybeSummarize(conversationId, state);
+    }
+
+    //after a window is loaded from the db: anything older than the window that the summary doesn't cover yet
+    //(dropped while nothing was in memory, e.g. before a restart) gets queued for summarization
+    public void catchUp(Long conversationId, List<Message> window){
+        if(!enabled || window.isEmpty()){
+            return;
+        }
+        LocalDateTime windowStart = window.get(0).getCreatedAt();
+        getSummary(conversationId)
+                .flatMap(summary -> {
+                    Pending state = pending.getIfPresent(conversationId);
+                    LocalDateTime after = latest(summary.summarizedUntil(), state != null ? state.queuedUntil() : null);
+                    if(after != null && !after.isBefore(windowStart)){
+                        return Mono.empty();
+                    }
+                    return conversationStore.findMessagesBetween(conversationId,
+                            after != null ? after : BEGINNING, windowStart, catchUpRows);
+                })
+                .subscribe(missed -> onEvicted(conversationId, missed),
+                        e -> log.warn("Summary catch-up failed for conversation {}: {}", conversationId, e.getMessage()));
+    }
+
+    private void maybeSummarize(Long conversationId, Pending state){
+        List<Message> batch;
+        synchronized (state){
+            if(state.running || state.tokens < minEvictedTokens){
+                return;
+            }
+            state.running = true;
+            batch = state.drain();
+        }
+
+        getSummary(conversationId)
+                .flatMap(previous -> summarize(previous, batch)
+                        .flatMap(updated -> conversationStore.saveSummary(conversationId, updated).thenReturn(updated)))
+                .subscribe(updated -> {
+                    summaries.put(conversationId, updated);
+                    summarizations.incrementAndGet();
+                    finish(conversationId, state, null);
+                }, e -> {
+                    failures.incrementAndGet();
+                    finish(conversationId, state, batch);
+                    Duration delay = retryDelay(state);
+                    log.warn("Summarizing conversation {} failed, retrying in {} or with the next evictions: {}", conversationId,
+                            delay, e.getMessage());
+                    Mono.delay(delay).subscribe(tick -> retry(conversationId, state));
+                });
+    }
+
+    private void finish(Long conversationId, Pending state, List<Message> failedBatch){
+        synchronized (state){
+            state.running = false;
+            if(failedBatch != null){
+                state.requeue(failedBatch);
+                state.failedAttempts++;
+                return;
+            }
+            state.failedAttempts = 0;
+            if(state.messages.isEmpty()){
+                pending.asMap().remove(conversationId, state);
+                return;
+            }
+        }
+        maybeSummarize(conversationId, state);
+    }
+
+    //doubles with every failure in a row, up to max-retry-delay
+    private Duration retryDelay(Pending state){
+        int failedAttempts;
+        synchronized (state){
+            failedAttempts = state.failedAttempts;
+        }
+        Duration delay = retryDelay.multipliedBy(1L << Math.min(failedAttempts - 1, 20));
+        return delay.compareTo(maxRetryDelay) > 0 ? maxRetryDelay : delay;
+    }
+
+    //only if the messages are still waiting: a later eviction may have summarized them already, or the entry expired.
+    //read quietly, retrying alone shouldn't keep an idle conversation's entry alive
+    private void retry(Long conversationId, Pending state){
+        if(pending.policy().getIfPresentQuietly(conversationId) == state){
+            maybeSummarize(conversationId, state);
+        }
+    }
+
+    //one non-streamed-to-anyone completion: the old summary plus the new messages in, the new summary out
+    Mono<ConversationSummary> summarize(ConversationSummary previous, List<Message> batch){
+        StringBuilder transcript = new StringBuilder();
+        for(Message message: batch){
+            transcript.append(message.getRole()).append(": ").append(message.getContent()).append('\n');
+        }
+        String input = "Current summary:\n" + (previous.isEmpty() ? "(none yet)" : previous.text())
+                + "\n\nNew messages:\n" + transcript;
+
+        OpenAIRequest request = new OpenAIRequest(model,
+                List.of(new OpenAIMessage("system", SUMMARY_PROMPT), new OpenAIMessage("user", input)),
+                summaryMaxTokens, true, new OpenAIRequest.StreamOptions(true));
+
+        LocalDateTime summarizedUntil = batch.get(batch.size() - 1).getCreatedAt();
+        return openAIClient.streamChatCompletion(request)
+                .filter(StreamDelta::hasContent)
+                .map(StreamDelta::content)
+                .collect(StringBuilder::new, StringBuilder::append)
+                .map(StringBuilder::toString)
+                .filter(text -> !text.isBlank())
+                .map(text -> new ConversationSummary(text.strip(), tokenCounterService.countTokens(text.strip()), summarizedUntil))
+                //a failure like any other, so the batch goes back and is retried
+                .switchIfEmpty(Mono.error(() -> new IllegalStateException("the summary came back empty")));
+    }
+
+    private static LocalDateTime latest(LocalDateTime a, LocalDateTime b){
+        if(a == null){
+            return b;
+        }
+        return b == null || a.isAfter(b) ? a : b;
+    }
+
+    public long getSummarizationCount(){
+        return summarizations.get();
+    }
+
+    public long getFailureCount(){
+        return failures.get();
+    }
+
+    //evicted messages of one conversation waiting to be folded in, guarded by its own monitor
+    private static final class Pending {
+        private final List<Message> messages = new ArrayList<>();
+        private int tokens;
+        private LocalDateTime queuedUntil;
+        private boolean running;
+        private int failedAttempts;
+
+        void add(Message message){
+            //catch-up and live evictions can overlap, never queue the same point in time twice
+            if(queuedUntil != null && !message.getCreatedAt().isAfter(queuedUntil)){
+                return;
+            }
+            messages.add(message);
+            tokens += message.getTokens() != null ? message.getTokens() : 0;
+            queuedUntil = message.getCreatedAt();
+        }
+
+        List<Message> drain(){
+            List<Message> batch = new ArrayList<>(messages);
+            messages.clear();
+            tokens = 0;
+            return batch;
+        }
+
+        void requeue(List<Message> batch){
+            messages.addAll(0, batch);
+            for(Message message: batch){
+                tokens += message.getTokens() != null ? message.getTokens() : 0;
+            }
+        }
+
+        LocalDateTime queuedUntil(){
+            synchronized (this){
+                return queuedUntil;
+            }
+        }
+    }
+}
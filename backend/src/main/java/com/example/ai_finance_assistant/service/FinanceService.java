@@ -1,52 +1,135 @@
 package com.example.ai_finance_assistant.service;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
-
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.ai_finance_assistant.dto.BatchAnswer;
+import com.example.ai_finance_assistant.dto.BatchRequest;
+import com.example.ai_finance_assistant.dto.ConversationDTO;
+import com.example.ai_finance_assistant.dto.ConversationSummary;
+import com.example.ai_finance_assistant.dto.HistoryCursor;
+import com.example.ai_finance_assistant.dto.HistoryPage;
 import com.example.ai_finance_assistant.dto.openai.OpenAIMessage;
 import com.example.ai_finance_assistant.dto.openai.OpenAIRequest;
-import com.example.ai_finance_assistant.entity.Conversation;
+import com.example.ai_finance_assistant.dto.openai.StreamDelta;
 import com.example.ai_finance_assistant.entity.Message;
+import com.example.ai_finance_assistant.entity.MessageStatus;
+import com.example.ai_finance_assistant.exception.InvalidRequestException;
 import com.example.ai_finance_assistant.repository.ConversationRepository;
 import com.example.ai_finance_assistant.repository.MessageRepository;
 
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 @Service
 public class FinanceService {
+    private static final Logger log = LoggerFactory.getLogger(FinanceService.class);
+
     private final OpenAIClient openAIClient;
     private final ConversationRepository conversationRepository;
     private final MessageRepository messageRepository;
 
     private final TokenCounterService tokenCounterService;
+    private final ContextWindowCache contextWindowCache;
+    private final ConversationStore conversationStore;
+    private final ResponseCache responseCache;
+    private final ConversationSummarizer summarizer;
+    private final ChatMetrics chatMetrics;
+    private final MessageArchiver messageArchiver;
+    private final ConversationIdCache conversationIdCache;
 
     private final int MAX_TOKENS = 1500;
+    //raw history budget for the window, smaller than MAX_TOKENS when a summary stands in for the older turns
+    private final int historyBudget;
+    //every message costs at least one token, so the tail can never be longer than this
+    private final int maxHistoryRows;
+    private final int maxBatchQuestions;
+    //sessions (or standalone questions) of a batch answered at the same time
+    private final int batchConcurrency;
+
+    static final String SYSTEM_PROMPT =
+            "You are an expert Finance Tutor. Only address finance-related topics. " +
+            "If asked non-finance questions, politely redirect to financial learning goals.\n\n" +
+
+            "FORMATTING & MATH:\n" +
+            "- Numbered lists for steps; bullets for examples.\n" +
+            "- **Bold** key terms. Use plain text for formulas (no LaTeX).\n\n" +
+
+            "OUTPUT CONSTRAINTS (CRITICAL):\n" +
+            "- LIMIT: Keep your total response under 300 words (roughly 400-500 tokens).\n" +
+            "- COMPLETION: Ensure every response ends with a conclusive summary or a final closing sentence. " +
+            "Never stop mid-thought or mid-explanation.\n" +
+            "- CONCISENESS: Prioritize high-impact information to ensure the full explanation fits within the limit.";
+
+    static final String SUMMARY_PREFIX = "Summary of the earlier conversation:\n";
+
+    //the system prompt never changes, so its cost is counted once. on first use, not in the constructor,
+    //which would wait for the token encoding (loading in the background) in the middle of startup
+    private volatile int systemPromptTokens = -1;
+    private volatile int summaryPrefixTokens = -1;
 
     public FinanceService(OpenAIClient openAIClient,
                           ConversationRepository conversationRepository,
-                          MessageRepository messageRepository, TokenCounterService tokenCounterService) {
+                          MessageRepository messageRepository, TokenCounterService tokenCounterService,
+                          ContextWindowCache contextWindowCache, ConversationStore conversationStore,
+                          ResponseCache responseCache, ConversationSummarizer summarizer, ChatMetrics chatMetrics,
+                          MessageArchiver messageArchiver, ConversationIdCache conversationIdCache,
+                          @Value("${app.summary.history-tokens:800}") int summaryHistoryTokens,
+                          @Value("${app.batch.max-questions:500}") int maxBatchQuestions,
+                          @Value("${app.batch.concurrency:8}") int batchConcurrency) {
         this.openAIClient = openAIClient;
         this.conversationRepository = conversationRepository;
         this.messageRepository = messageRepository;
         this.tokenCounterService = tokenCounterService;
+        this.contextWindowCache = contextWindowCache;
+        this.conversationStore = conversationStore;
+        this.responseCache = responseCache;
+        this.summarizer = summarizer;
+        this.chatMetrics = chatMetrics;
+        this.messageArchiver = messageArchiver;
+        this.conversationIdCache = conversationIdCache;
+        this.historyBudget = summarizer.isEnabled() ? Math.min(summaryHistoryTokens, MAX_TOKENS) : MAX_TOKENS;
+        this.maxHistoryRows = historyBudget;
+        this.maxBatchQuestions = maxBatchQuestions;
+        this.batchConcurrency = batchConcurrency;
+    }
+
+    private int systemPromptTokens(){
+        int tokens = systemPromptTokens;
+        if(tokens < 0){
+            tokens = systemPromptTokens = tokenCounterService.countMessageTokens(SYSTEM_PROMPT);
+        }
+        return tokens;
     }
 
+    private int summaryPrefixTokens(){
+        int tokens = summaryPrefixTokens;
+        if(tokens < 0){
+            tokens = summaryPrefixTokens = tokenCounterService.countTokens(SUMMARY_PREFIX);
+        }
+        return tokens;
+    }
 
 
-    public Conversation findOrCreateConversation(String sessionIdStr){
+
+    private UUID parseSessionId(String sessionIdStr){
         try{
             //convert the string to UUID
-            UUID sessionID = UUID.fromString(sessionIdStr);
-
-            //check to see if the conversation exist, if it does return or create a new one
-            return conversationRepository.findBySessionId(sessionID)
-                        .orElseGet(() -> {
-                            Conversation newConv = new Conversation(sessionID);
-                            return conversationRepository.save(newConv);
-                        });
+            return UUID.fromString(sessionIdStr);
 
         //fails in case the sessionID is not valid
         }catch(IllegalArgumentException e){
@@ -60,111 +143,341 @@ public class FinanceService {
         return messageRepository.findByConversationIdOrderByCreatedAtAsc(conversationID);
     }
 
-    //helper function to save messages to the db
-    public Message saveMessage(Long conversationID, String role, String content){
-        Conversation conversation = conversationRepository.findById(conversationID)
-                .orElseThrow(() -> new RuntimeException("Conversation not valid"));
-        int tokenCount = tokenCounterService.countTokens(content);
-        Message message = new Message(role, content, conversation, tokenCount);
-        return messageRepository.save(message);
+    //read-only lookup for the history endpoints, an unknown session just has no history.
+    //archived history is moved back before it's read
+    public Optional<Long> findConversationId(String sessionIdStr){
+        UUID sessionID = parseSessionId(sessionIdStr);
+        Optional<Long> conversationId = conversationIdCache.find(sessionID, () -> conversationRepository.findIdBySessionId(sessionID));
+        conversationId.ifPresent(messageArchiver::rehydrate);
+        return conversationId;
     }
 
+    //a page of history after the cursor (from the start if there is none)
+    public HistoryPage loadConversationHistoryPage(Long conversationID, String cursor, int limit){
+        //one extra row tells us whether there is a next page
+        List<Message> rows = cursor == null
+                ? messageRepository.findHistoryPage(conversationID, limit + 1)
+                : loadHistoryPageAfter(conversationID, HistoryCursor.decode(cursor), limit + 1);
+
+        boolean hasMore = rows.size() > limit;
+        List<Message> page = hasMore ? rows.subList(0, limit) : rows;
+        Message last = page.isEmpty() ? null : page.get(page.size() - 1);
+        return new HistoryPage(
+                page.stream().map(msg -> new ConversationDTO(msg.getRole(), msg.getContent(), msg.getCreatedAt(), msg.getStatus())).toList(),
+                hasMore ? new HistoryCursor(last.getCreatedAt(), last.getId()).encode() : null);
+    }
 
-    //loop through all the messages and give back the total number of tokens
-    private int calculateTotalTokens(List<Message> messages){
-        //declarative piece with stream
-        return messages.stream()
-                .mapToInt(Message::getTokens)
-                .sum();
-
-//        Classic way of doing it
-    /*
-      int total = 0;
+    private List<Message> loadHistoryPageAfter(Long conversationID, HistoryCursor cursor, int limit){
+        return messageRepository.findHistoryPageAfter(conversationID, cursor.createdAt(), cursor.id(), limit);
+    }
 
-        for(Message msg: messages){
-            total += msg.getTokens();
-       }
-       return total;
-    */
+    //hand every message to the consumer as it's read, without holding the history in memory
+    @Transactional(readOnly = true)
+    public void forEachHistoryMessage(Long conversationID, Consumer<ConversationDTO> consumer){
+        try(Stream<ConversationDTO> history = messageRepository.streamHistory(conversationID)){
+            history.forEach(consumer);
+        }
     }
 
-    private List<Message> truncateHistory(List<Message> history, int totalTokens) {
-        System.out.println("Truncating history: " + history.size() + " messages and total tokens " + totalTokens);
-        List<Message> truncated = new ArrayList<>(history);
+    //ETag for a conversation's history, only changes when a message is added
+    public String historyETag(Long conversationID){
+        return "\"m" + messageRepository.findLatestMessageId(conversationID).orElse(0L) + "\"";
+    }
 
-        while(totalTokens > MAX_TOKENS && truncated.size() > 1){
-            Message oldest = truncated.remove(0);
-            totalTokens -= oldest.getTokens();
-            System.out.println("Dropped messages, tokens now " + totalTokens);
-        }
+    //load the token-budgeted tail of the conversation, only goes to the db when the window isn't cached.
+    //an archived conversation is brought back first (it can't have a cached window, it's been idle far longer).
+    //whatever older turns the summary hasn't covered yet get folded in once the window is loaded
+    public Mono<List<Message>> loadContextWindow(Long conversationID){
+        return contextWindowCache.getWindow(conversationID, id -> messageArchiver.rehydrateAsync(id)
+                .then(chatMetrics.timePersistence("load_tail", conversationStore.findTokenBudgetedTail(id, historyBudget, maxHistoryRows)))
+                .doOnNext(tail -> {
+                    chatMetrics.recordHistoryLoaded(tail);
+                    summarizer.catchUp(id, tail);
+                })
+                .map(tail -> new ContextWindow(historyBudget, tail)));
+    }
 
-        System.out.println("Kept " + truncated.size() + " of" + history.size() + " messages");
+    //helper function to save messages to the db
+    public Mono<Void> saveMessage(Long conversationID, String role, String content){
+        return saveMessage(conversationID, role, content, tokenCounterService.countTokensCached(content));
+    }
 
-        return truncated;
+    //same, for when the token count is already known
+    public Mono<Void> saveMessage(Long conversationID, String role, String content, int tokenCount){
+        return saveMessage(conversationID, role, content, tokenCount, MessageStatus.COMPLETE);
     }
 
+    //same, for answers that didn't finish normally
+    public Mono<Void> saveMessage(Long conversationID, String role, String content, int tokenCount, MessageStatus status){
+        return Mono.defer(() -> {
+            Message message = new Message(role, content, null, tokenCount);
+            message.setStatus(status);
+
+            //keep the cached context window in step with what's been saved, what falls out of it goes to the summary
+            List<Message> evicted = contextWindowCache.append(conversationID, message);
+            chatMetrics.recordEvicted(evicted);
+            summarizer.onEvicted(conversationID, evicted);
+            return chatMetrics.timePersistence("save_message", conversationStore.saveMessage(conversationID, message));
+        });
+    }
 
 
+    //one non-blocking pipeline per turn: resolve the conversation, load its window, save the question,
+    //stream the answer and save it before the stream completes
     public Flux<String> getResponseStream(String userMessage, String sessionId){
+        UUID sessionID = parseSessionId(sessionId);
+
+        //a known session resolves from the cache, a new one is created (or found) in a single upsert
+        return chatMetrics.timeTurn(turn -> conversationIdCache
+                .get(sessionID, id -> chatMetrics.timePersistence("find_conversation", conversationStore.findOrCreateConversationId(id)))
+                .flatMapMany(conversationId -> Mono.zip(loadContextWindow(conversationId), summarizer.getSummary(conversationId))
+                        .flatMapMany(context -> respond(conversationId, context.getT1(), context.getT2(), userMessage, turn))));
+    }
 
-        //first find or create a new conversation
-        Conversation conversation = findOrCreateConversation(sessionId);
+    private Flux<String> respond(Long conversationId, List<Message> history, ConversationSummary summary, String userMessage,
+                                 ChatMetrics.Turn turn){
 
-        //load conversation history and truncate if necessary
-        List<Message> history = loadConversationHistory(conversation.getId());
-        int totalToken = calculateTotalTokens(history);
+        Prompt prompt = buildPrompt(history, summary, userMessage);
+        OpenAIRequest request = prompt.request();
+        int estimatedPromptTokens = prompt.estimatedPromptTokens();
 
-        if(totalToken > MAX_TOKENS){
-            history = truncateHistory(history, totalToken); //truncate history
+        //saving user message
+        Mono<Void> saveUserMessage = saveMessage(conversationId, "user", userMessage, prompt.userTokens());
+
+        //first-turn questions we've already answered are replayed from the cache, still saved like a live answer
+        boolean cacheable = responseCache.isCacheable(request);
+        if (cacheable) {
+            ResponseCache.CachedResponse cached = responseCache.get(request);
+            if (cached != null) {
+                turn.source(ChatMetrics.SOURCE_CACHE);
+                turn.completionTokens(cached.completionTokens());
+                return saveUserMessage.thenMany(responseCache.replay(cached.content()))
+                        .concatWith(saveMessage(conversationId, "assistant", cached.content(), cached.completionTokens())
+                                .then(Mono.empty()));
+            }
         }
 
+        //stream response and collect it to save later. the reply's token count comes from the usage the stream reports,
+        //only without one is the assembled answer counted, once, nothing is counted per delta on the event loop
+        StringBuilder assistantResponse = new StringBuilder();
+        AtomicReference<StreamDelta.Usage> usage = new AtomicReference<>();
+        AtomicReference<String> finishReason = new AtomicReference<>();
+        Flux<String> answer = openAIClient.streamChatCompletion(request, estimatedPromptTokens)
+                .doOnNext(delta -> {
+                    if (delta.usage() != null) {
+                        usage.set(delta.usage());
+                    }
+                    if (delta.finishReason() != null) {
+                        finishReason.set(delta.finishReason());
+                    }
+                    if (delta.hasContent()) {
+                        synchronized (assistantResponse) {
+                            assistantResponse.append(delta.content()); //collect chunks
+                        }
+                    }
+                })
+                //nobody is listening any more (the generation was abandoned): the cancel reaches the upstream call
+                //and closes its connection, what had arrived so far is kept as a cancelled answer
+                .doOnCancel(() -> {
+                    String partial;
+                    synchronized (assistantResponse) {
+                        partial = assistantResponse.toString();
+                    }
+                    int partialTokens = partial.isEmpty() ? 0 : tokenCounterService.countTokens(partial);
+                    chatMetrics.recordAbandoned(estimatedPromptTokens, partialTokens);
+                    if (!partial.isEmpty()) {
+                        saveMessage(conversationId, "assistant", partial, partialTokens, MessageStatus.CANCELLED)
+                                .subscribe(null, e -> log.warn("Couldn't save cancelled answer for conversation {}", conversationId, e));
+                    }
+                })
+                .filter(StreamDelta::hasContent)
+                .map(StreamDelta::content);
+
+        //save assistant response after streaming completes
+        Mono<Void> saveAnswer = Mono.defer(() -> {
+            if (assistantResponse.length() == 0) {
+                return Mono.empty();
+            }
+            StreamDelta.Usage reported = usage.get();
+            int responseTokens = reported != null ? reported.completionTokens() : tokenCounterService.countTokens(assistantResponse.toString());
+            turn.completionTokens(responseTokens);
+            if (reported != null) {
+                log.debug("Prompt tokens estimated {} reported {}", estimatedPromptTokens, reported.promptTokens());
+            }
+
+            //only complete answers are worth replaying, not ones cut off by max_tokens
+            if (cacheable && "stop".equals(finishReason.get())) {
+                responseCache.put(request, new ResponseCache.CachedResponse(assistantResponse.toString(), responseTokens));
+            }
+            MessageStatus status = "length".equals(finishReason.get()) ? MessageStatus.TRUNCATED : MessageStatus.COMPLETE;
+            return saveMessage(conversationId, "assistant", assistantResponse.toString(), responseTokens, status);
+        });
+
+        return saveUserMessage.thenMany(answer).concatWith(saveAnswer.then(Mono.empty()));
+    }
 
-        //saving user message
-        saveMessage(conversation.getId(), "user", userMessage);
+    //many questions in one call, for offline work. batchConcurrency sessions are answered at a time (the admission controller
+    //still paces the upstream calls), a session's questions one after the other so each sees the answers before it.
+    //answers go out as they finish and every answered turn is saved straight away, a batch cut off halfway keeps what it got
+    public Flux<BatchAnswer> answerBatch(List<BatchRequest.Question> questions){
+        if(questions == null || questions.isEmpty()){
+            throw new InvalidRequestException("A batch needs at least one question");
+        }
+        if(questions.size() > maxBatchQuestions){
+            throw new InvalidRequestException("A batch can have at most " + maxBatchQuestions + " questions");
+        }
+
+        //grouped up front, so a bad question fails the request before anything goes upstream
+        Map<UUID, List<BatchQuestion>> sessions = new LinkedHashMap<>();
+        List<BatchQuestion> standalone = new ArrayList<>();
+        for(int i = 0; i < questions.size(); i++){
+            BatchRequest.Question question = questions.get(i);
+            if(question == null || question.message() == null || question.message().isBlank()){
+                throw new InvalidRequestException("Question " + i + " has no message");
+            }
+            BatchQuestion indexed = new BatchQuestion(i, question.message(), question.sessionID());
+            if(question.sessionID() == null || question.sessionID().isBlank()){
+                standalone.add(indexed);
+            }else{
+                sessions.computeIfAbsent(parseSessionId(question.sessionID()), id -> new ArrayList<>()).add(indexed);
+            }
+        }
+
+        return Flux.fromIterable(sessions.entrySet())
+                .map(session -> answerSession(session.getKey(), session.getValue()))
+                .concatWith(Flux.fromIterable(standalone).map(question -> answerStandalone(question).flux()))
+                .flatMap(Function.identity(), batchConcurrency);
+    }
+
+    private Flux<BatchAnswer> answerSession(UUID sessionID, List<BatchQuestion> questions){
+        return conversationIdCache
+                .get(sessionID, id -> chatMetrics.timePersistence("find_conversation", conversationStore.findOrCreateConversationId(id)))
+                .flatMapMany(conversationId -> Mono.zip(loadContextWindow(conversationId), summarizer.getSummary(conversationId))
+                        .flatMapMany(context -> {
+                            ContextWindow window = new ContextWindow(historyBudget, context.getT1());
+                            return Flux.fromIterable(questions).concatMap(question -> {
+                                Prompt prompt = buildPrompt(window.snapshot(), context.getT2(), question.message());
+                                return answer(prompt)
+                                        .flatMap(answer -> {
+                                            Message asked = new Message("user", question.message(), null, prompt.userTokens());
+                                            Message answered = new Message("assistant", answer.content(), null, answer.tokens());
+                                            answered.setStatus(answer.status());
+                                            window.append(asked);
+                                            window.append(answered);
+                                            return saveTurn(conversationId, asked, answered)
+                                                    .thenReturn(BatchAnswer.answered(question.index(), question.sessionID(),
+                                                            answer.content(), answer.tokens(), answer.status()));
+                                        })
+                                        //the session carries on without this turn
+                                        .onErrorResume(e -> Mono.just(BatchAnswer.failed(question.index(), question.sessionID(), e.getMessage())));
+                            });
+                        }))
+                //the session couldn't be resolved or its history loaded
+                .onErrorResume(e -> Flux.fromIterable(questions)
+                        .map(question -> BatchAnswer.failed(question.index(), question.sessionID(), e.getMessage())));
+    }
+
+    //the question and its answer, handed to the write-behind before the answer goes out.
+    //the answer is good either way, a failed save is logged rather than reported
+    private Mono<Void> saveTurn(Long conversationId, Message asked, Message answered){
+        return Flux.just(asked, answered)
+                .concatMap(message -> saveMessage(conversationId, message.getRole(), message.getContent(),
+                        message.getTokens(), message.getStatus()))
+                .then()
+                .onErrorResume(e -> {
+                    log.warn("Couldn't save a batch turn for conversation {}", conversationId, e);
+                    return Mono.empty();
+                });
+    }
+
+    //no session: no history, nothing saved
+    private Mono<BatchAnswer> answerStandalone(BatchQuestion question){
+        return answer(buildPrompt(List.of(), ConversationSummary.EMPTY, question.message()))
+                .map(answer -> BatchAnswer.answered(question.index(), null, answer.content(), answer.tokens(), answer.status()))
+                .onErrorResume(e -> Mono.just(BatchAnswer.failed(question.index(), null, e.getMessage())));
+    }
+
+    //the whole answer to a prompt, replayed from the response cache when it's a first-turn question answered before
+    private Mono<Answer> answer(Prompt prompt){
+        OpenAIRequest request = prompt.request();
+        boolean cacheable = responseCache.isCacheable(request);
+        if(cacheable){
+            ResponseCache.CachedResponse cached = responseCache.get(request);
+            if(cached != null){
+                return Mono.just(new Answer(cached.content(), cached.completionTokens(), MessageStatus.COMPLETE));
+            }
+        }
+        return Mono.defer(() -> {
+            StringBuilder content = new StringBuilder();
+            AtomicReference<StreamDelta.Usage> usage = new AtomicReference<>();
+            AtomicReference<String> finishReason = new AtomicReference<>();
+            return openAIClient.streamChatCompletion(request, prompt.estimatedPromptTokens())
+                    .doOnNext(delta -> {
+                        if(delta.usage() != null){
+                            usage.set(delta.usage());
+                        }
+                        if(delta.finishReason() != null){
+                            finishReason.set(delta.finishReason());
+                        }
+                        if(delta.hasContent()){
+                            content.append(delta.content());
+                        }
+                    })
+                    .then(Mono.fromSupplier(() -> {
+                        String text = content.toString();
+                        int tokens = usage.get() != null ? usage.get().completionTokens() : tokenCounterService.countTokens(text);
+                        if(cacheable && "stop".equals(finishReason.get())){
+                            responseCache.put(request, new ResponseCache.CachedResponse(text, tokens));
+                        }
+                        MessageStatus status = "length".equals(finishReason.get()) ? MessageStatus.TRUNCATED : MessageStatus.COMPLETE;
+                        return new Answer(text, tokens, status);
+                    }));
+        });
+    }
+
+    //system prompt, summary, history and the new question, with a rough count of what it'll cost
+    private Prompt buildPrompt(List<Message> history, ConversationSummary summary, String userMessage){
+        int userTokens = tokenCounterService.countTokensCached(userMessage);
 
         //build message array
         List<OpenAIMessage> messages = new ArrayList<>();
 
-        messages.add(new OpenAIMessage("system",
-                        "You are an expert Finance Tutor. Only address finance-related topics. " +
-                        "If asked non-finance questions, politely redirect to financial learning goals.\n\n" +
+        messages.add(new OpenAIMessage("system", SYSTEM_PROMPT));
 
-                        "FORMATTING & MATH:\n" +
-                        "- Numbered lists for steps; bullets for examples.\n" +
-                        "- **Bold** key terms. Use plain text for formulas (no LaTeX).\n\n" +
-
-                        "OUTPUT CONSTRAINTS (CRITICAL):\n" +
-                        "- LIMIT: Keep your total response under 300 words (roughly 400-500 tokens).\n" +
-                        "- COMPLETION: Ensure every response ends with a conclusive summary or a final closing sentence. " +
-                        "Never stop mid-thought or mid-explanation.\n" +
-                        "- CONCISENESS: Prioritize high-impact information to ensure the full explanation fits within the limit."
-        ));
+        //the older turns that no longer fit the window, condensed
+        int fixedPromptTokens = systemPromptTokens();
+        if(!summary.isEmpty()){
+            messages.add(new OpenAIMessage("system", SUMMARY_PREFIX + summary.text()));
+            fixedPromptTokens += summaryPrefixTokens() + summary.tokens() + TokenCounterService.TOKENS_PER_MESSAGE;
+        }
 
         //add conversation history
+        int historyTokens = 0;
         for(Message msg: history){
             messages.add(new OpenAIMessage(msg.getRole(), msg.getContent()));
+            historyTokens += msg.getTokens();
         }
 
         //add new user message
         messages.add(new OpenAIMessage("user", userMessage));
 
+        int estimatedPromptTokens = tokenCounterService.estimatePromptTokens(
+                fixedPromptTokens, historyTokens, history.size(), userTokens);
+
         //create OpenAI request
         OpenAIRequest request = new OpenAIRequest(
                 "gpt-4o-mini",
                 messages,
                 500,
-                true
+                true,
+                new OpenAIRequest.StreamOptions(true)
         );
-
-        //stream response and collect it to save later
-        StringBuilder assistantResponse = new StringBuilder();
-        return openAIClient.createChatCompletion(request)
-                .doOnNext(chunk -> assistantResponse.append(chunk))//collect chunks
-                .doOnComplete(() -> {
-                    //save assistant response after streaming completes
-                    if (assistantResponse.length() > 0) {
-                        saveMessage(conversation.getId(), "assistant", assistantResponse.toString());
-                    }
-                });
+        return new Prompt(request, userTokens, estimatedPromptTokens);
     }
+
+    private record Prompt(OpenAIRequest request, int userTokens, int estimatedPromptTokens) {}
+
+    private record Answer(String content, int tokens, MessageStatus status) {}
+
+    private record BatchQuestion(int index, String message, String sessionID) {}
 }
@@ -0,0 +1,169 @@
+package com.example.ai_finance_assistant.service;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+
+import com.example.ai_finance_assistant.exception.GenerationGoneException;
+import com.example.ai_finance_assistant.exception.InvalidRequestException;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.function.Tuple2;
+
+//answers that keep generating when the client goes away. each one gets an id and runs on its own, independent of
+//the request that started it, its chunks go into a bounded replay buffer so a reconnect with Last-Event-ID
+//("<generation>:<seq>") picks up right after the last chunk it saw instead of paying for a new completion.
+//a generation is forgotten grace-period after it ends. one nobody is listening to any more is given disconnect-grace
+//for a reconnect, then cancelled: the upstream call stops, its connection is released and the partial answer is saved
+@Component
+public class GenerationRegistry {
+
+    private final int replayChunks;
+    private final Duration gracePeriod;
+    private final Duration disconnectGrace;
+
+    private final Map<String, Generation> generations = new ConcurrentHashMap<>();
+    private final AtomicLong resumed = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+
+    public GenerationRegistry(@Value("${app.generation.replay-chunks:1000}") int replayChunks,
+                              @Value("${app.generation.grace-period:2m}") Duration gracePeriod,
+                              @Value("${app.generation.disconnect-grace:10s}") Duration disconnectGrace) {
+        this.replayChunks = replayChunks;
+        this.gracePeriod = gracePeriod;
+        this.disconnectGrace = disconnectGrace;
+    }
+
+    //one running answer. chunks are numbered from 0, the buffer keeps the newest replayChunks of them
+    final class Generation {
+        private final String id = UUID.randomUUID().toString();
+        private final String sessionId;
+        private final AtomicLong produced = new AtomicLong();
+        private final Flux<Tuple2<Long, String>> chunks;
+
+        //guarded by this
+        private int listeners;
+        private boolean ended;
+        private Disposable connection;
+        private Disposable pendingAbort;
+
+        private Generation(String sessionId, Flux<String> source){
+            this.sessionId = sessionId;
+            this.chunks = source
+                    .doOnNext(chunk -> produced.incrementAndGet())
+                    .doFinally(signal -> ended())
+                    .index()
+                    .replay(replayChunks)
+                    //started by the request that asked for it, subscribers leaving don't cancel it, abandon() does
+                    .autoConnect(1, this::connected);
+        }
+
+        private synchronized void connected(Disposable connection){
+            this.connection = connection;
+        }
+
+        private void ended(){
+            synchronized (this){
+                ended = true;
+                if(pendingAbort != null){
+                    pendingAbort.dispose();
+                }
+            }
+            Schedulers.parallel().schedule(() -> generations.remove(id, this), gracePeriod.toMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        private synchronized void attached(){
+            listeners++;
+            if(pendingAbort != null){
+                pendingAbort.dispose();
+                pendingAbort = null;
+            }
+        }
+
+        private synchronized void detached(){
+            listeners--;
+            if(listeners == 0 && !ended){
+                pendingAbort = Schedulers.parallel().schedule(this::abandon, disconnectGrace.toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+
+        //nobody came back for it: stop the upstream call. resumes can't be served any more, so it's forgotten right away
+        private void abandon(){
+            synchronized (this){
+                if(listeners > 0 || ended || connection == null){
+                    return;
+                }
+                ended = true;
+            }
+            generations.remove(id, this);
+            abandoned.incrementAndGet();
+            connection.dispose();
+        }
+
+        String id(){
+            return id;
+        }
+
+        //every chunk after afterSeq (-1 for all of them) as an SSE event whose id is what a reconnect sends back
+        Flux<ServerSentEvent<String>> events(long afterSeq){
+            return chunks
+                    .doOnSubscribe(subscription -> attached())
+                    .doFinally(signal -> detached())
+                    .filter(chunk -> chunk.getT1() > afterSeq)
+                    .map(chunk -> ServerSentEvent.builder(chunk.getT2()).id(id + ":" + chunk.getT1()).build());
+        }
+    }
+
+    //run the answer detached from the caller and register it
+    public Flux<ServerSentEvent<String>> start(String sessionId, Flux<String> answer){
+        Generation generation = new Generation(sessionId, answer);
+        generations.put(generation.id(), generation);
+        return generation.events(-1);
+    }
+
+    //continue a generation after the chunk named by Last-Event-ID, only for the session that started it
+    public Flux<ServerSentEvent<String>> resume(String sessionId, String lastEventId){
+        int separator = lastEventId.lastIndexOf(':');
+        if(separator <= 0){
+            throw new InvalidRequestException("Invalid Last-Event-ID: " + lastEventId);
+        }
+        long afterSeq;
+        try{
+            afterSeq = Long.parseLong(lastEventId.substring(separator + 1));
+        }catch(NumberFormatException e){
+            throw new InvalidRequestException("Invalid Last-Event-ID: " + lastEventId);
+        }
+
+        Generation generation = generations.get(lastEventId.substring(0, separator));
+        if(generation == null || !generation.sessionId.equals(sessionId)){
+            throw new GenerationGoneException("Generation for " + lastEventId + " has ended or expired");
+        }
+        long oldestRetained = Math.max(0, generation.produced.get() - replayChunks);
+        if(afterSeq + 1 < oldestRetained){
+            throw new GenerationGoneException("Generation " + generation.id() + " no longer has the chunks after " + afterSeq);
+        }
+        resumed.incrementAndGet();
+        return generation.events(afterSeq);
+    }
+
+    public int size(){
+        return generations.size();
+    }
+
+    public long getResumedCount(){
+        return resumed.get();
+    }
+
+    public long getAbandonedCount(){
+        return abandoned.get();
+    }
+}
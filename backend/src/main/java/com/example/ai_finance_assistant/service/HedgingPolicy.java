@@ -0,0 +1,138 @@
+package com.example.ai_finance_assistant.service;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.example.ai_finance_assistant.dto.openai.OpenAIRequest;
+
+//when a second upstream call is worth it because the first one is slow to produce its first delta.
+//the threshold is a percentile of recent times to first delta (or a fixed delay), and hedges are paid for from a budget
+//every call adds a fraction of a hedge to, so hedging can't add more than that fraction of load however slow upstream gets
+@Component
+public class HedgingPolicy {
+
+    //the learned threshold is recomputed after this many new samples, not on every call
+    private static final int RECOMPUTE_EVERY = 32;
+
+    private final boolean enabled;
+    private final Duration fixedDelay;
+    private final Duration initialDelay;
+    private final long minDelayNanos;
+    private final double percentile;
+    private final int minSamples;
+    private final double budgetRatio;
+    private final double maxBudget;
+    private final String model;
+
+    //guarded by this
+    private final long[] samples;
+    private int next;
+    private int count;
+    private int sinceRecompute;
+    private long learnedDelayNanos = -1;
+    private double budget;
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong won = new AtomicLong();
+    private final AtomicLong denied = new AtomicLong();
+
+    public HedgingPolicy(@Value("${app.openai.hedging.enabled:true}") boolean enabled,
+                         @Value("${app.openai.hedging.delay:#{null}}") Duration fixedDelay,
+                         @Value("${app.openai.hedging.percentile:0.95}") double percentile,
+                         @Value("${app.openai.hedging.initial-delay:3s}") Duration initialDelay,
+                         @Value("${app.openai.hedging.min-delay:500ms}") Duration minDelay,
+                         @Value("${app.openai.hedging.window:500}") int window,
+                         @Value("${app.openai.hedging.min-samples:50}") int minSamples,
+                         @Value("${app.openai.hedging.budget-ratio:0.05}") double budgetRatio,
+                         @Value("${app.openai.hedging.max-burst:10}") double maxBudget,
+                         @Value("${app.openai.hedging.model:}") String model) {
+        this.enabled = enabled;
+        this.fixedDelay = fixedDelay;
+        this.percentile = percentile;
+        this.initialDelay = initialDelay;
+        this.minDelayNanos = minDelay.toNanos();
+        this.samples = new long[window];
+        this.minSamples = Math.min(minSamples, window);
+        this.budgetRatio = budgetRatio;
+        this.maxBudget = maxBudget;
+        this.model = model;
+    }
+
+    public boolean isEnabled(){
+        return enabled;
+    }
+
+    //how long the first call gets to produce a delta before a hedge goes out
+    public synchronized Duration delay(){
+        if(fixedDelay != null){
+            return fixedDelay;
+        }
+        if(count < minSamples){
+            return initialDelay;
+        }
+        if(learnedDelayNanos < 0 || sinceRecompute >= RECOMPUTE_EVERY){
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int rank = (int) Math.ceil(percentile * sorted.length);
+            learnedDelayNanos = Math.max(minDelayNanos, sorted[Math.max(0, rank - 1)]);
+            sinceRecompute = 0;
+        }
+        return Duration.ofNanos(learnedDelayNanos);
+    }
+
+    //time to the first delta of a first call. a call cancelled before it got there reports how long it had waited,
+    //which is less than its real time but keeps the slow calls a hedge beat from vanishing out of the window
+    public synchronized void recordFirstDelta(long nanos){
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+        sinceRecompute++;
+    }
+
+    //every first call earns a fraction of a hedge
+    public synchronized void onCall(){
+        budget = Math.min(maxBudget, budget + budgetRatio);
+    }
+
+    //false if the budget is spent, the first call is then left to finish on its own
+    public boolean tryHedge(){
+        synchronized(this){
+            //the epsilon absorbs rounding from adding up fractions (ten 0.1s don't quite make 1.0)
+            if(budget < 1 - 1e-9){
+                denied.incrementAndGet();
+                return false;
+            }
+            budget -= 1;
+        }
+        sent.incrementAndGet();
+        return true;
+    }
+
+    public void hedgeWon(){
+        won.incrementAndGet();
+    }
+
+    //the same request, or the same conversation sent to the fallback model
+    public OpenAIRequest hedgeRequest(OpenAIRequest request){
+        if(model == null || model.isBlank()){
+            return request;
+        }
+        return new OpenAIRequest(model, request.messages(), request.max_tokens(), request.stream(), request.stream_options());
+    }
+
+    public long getSentCount(){
+        return sent.get();
+    }
+
+    public long getWonCount(){
+        return won.get();
+    }
+
+    public long getDeniedCount(){
+        return denied.get();
+    }
+}
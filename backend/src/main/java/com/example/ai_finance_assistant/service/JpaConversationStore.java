@@ -0,0 +1,84 @@
+package com.example.ai_finance_assistant.service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.example.ai_finance_assistant.dto.ConversationSummary;
+import com.example.ai_finance_assistant.entity.Conversation;
+import com.example.ai_finance_assistant.entity.Message;
+import com.example.ai_finance_assistant.repository.ConversationRepository;
+import com.example.ai_finance_assistant.repository.MessageRepository;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+//the jpa repositories behind the reactive store api. the blocking calls run on boundedElastic,
+//so at least the request thread isn't the one waiting on jdbc
+@Component
+@ConditionalOnProperty(name = "app.persistence.mode", havingValue = "jpa", matchIfMissing = true)
+public class JpaConversationStore implements ConversationStore {
+
+    private final ConversationRepository conversationRepository;
+    private final MessageRepository messageRepository;
+    private final MessageWriteBehind messageWriteBehind;
+
+    public JpaConversationStore(ConversationRepository conversationRepository, MessageRepository messageRepository,
+                                MessageWriteBehind messageWriteBehind) {
+        this.conversationRepository = conversationRepository;
+        this.messageRepository = messageRepository;
+        this.messageWriteBehind = messageWriteBehind;
+    }
+
+    @Override
+    public Mono<Long> findOrCreateConversationId(UUID sessionId){
+        return Mono.fromCallable(() -> conversationRepository.upsertBySessionId(sessionId, LocalDateTime.now())
+                        //a concurrent first request for the same session got there first
+                        .or(() -> conversationRepository.findIdBySessionId(sessionId))
+                        .orElseThrow())
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @Override
+    public Mono<List<Message>> findTokenBudgetedTail(Long conversationId, int maxTokens, int maxRows){
+        return Mono.fromCallable(() -> messageRepository.findTokenBudgetedTail(conversationId, maxTokens, maxRows))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    //the insert itself happens in the background (see MessageWriteBehind), this completes once the message is queued
+    @Override
+    public Mono<Void> saveMessage(Long conversationId, Message message){
+        return Mono.defer(() -> {
+            //the write-behind only needs the id of the conversation, which was already resolved for this turn.
+            //getReferenceById would open a repository transaction (and take a pooled connection) on whatever thread
+            //the stream completes on, usually an event loop
+            Conversation conversation = new Conversation();
+            conversation.setId(conversationId);
+            message.setConversation(conversation);
+            return messageWriteBehind.enqueue(message);
+        });
+    }
+
+    @Override
+    public Mono<ConversationSummary> findSummary(Long conversationId){
+        return Mono.fromCallable(() -> conversationRepository.findSummary(conversationId).orElse(ConversationSummary.EMPTY))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    @Override
+    public Mono<Void> saveSummary(Long conversationId, ConversationSummary summary){
+        return Mono.fromRunnable(() -> conversationRepository.updateSummary(conversationId, summary.text(), summary.tokens(),
+                        summary.summarizedUntil()))
+                .subscribeOn(Schedulers.boundedElastic())
+                .then();
+    }
+
+    @Override
+    public Mono<List<Message>> findMessagesBetween(Long conversationId, LocalDateTime after, LocalDateTime before, int maxRows){
+        return Mono.fromCallable(() -> messageRepository.findMessagesBetween(conversationId, after, before, maxRows))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+}
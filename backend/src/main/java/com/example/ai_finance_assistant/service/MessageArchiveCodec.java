@@ -0,0 +1,62 @@
+package com.example.ai_finance_assistant.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.example.ai_finance_assistant.entity.Message;
+import com.example.ai_finance_assistant.entity.MessageStatus;
+import com.fasterxml.jackson.annotation.JsonFormat;
+
+import tools.jackson.core.type.TypeReference;
+import tools.jackson.databind.ObjectMapper;
+
+//the archive payload: a conversation's messages as one json array of arrays (no repeated field names), gzipped.
+//chat text compresses well, a typical conversation ends up at a fraction of its size in the messages table
+final class MessageArchiveCodec {
+
+    private static final TypeReference<List<ArchivedMessage>> MESSAGES = new TypeReference<>() {};
+
+    private final ObjectMapper objectMapper;
+
+    MessageArchiveCodec(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @JsonFormat(shape = JsonFormat.Shape.ARRAY)
+    record ArchivedMessage(String role, String content, Integer tokens, MessageStatus status, LocalDateTime createdAt) {
+
+        static ArchivedMessage of(Message message){
+            return new ArchivedMessage(message.getRole(), message.getContent(), message.getTokens(), message.getStatus(),
+                    message.getCreatedAt());
+        }
+    }
+
+    record Encoded(byte[] payload, int rawBytes) {}
+
+    Encoded encode(List<ArchivedMessage> messages){
+        byte[] raw = objectMapper.writeValueAsBytes(messages);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 4 + 64);
+        try(OutputStream gzip = new GZIPOutputStream(compressed)){
+            gzip.write(raw);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+        return new Encoded(compressed.toByteArray(), raw.length);
+    }
+
+    List<ArchivedMessage> decode(byte[] payload){
+        try(InputStream gzip = new GZIPInputStream(new ByteArrayInputStream(payload))){
+            return objectMapper.readValue(gzip, MESSAGES);
+        }catch(IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.ai_finance_assistant.service;
+
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.ai_finance_assistant.entity.Message;
+import com.example.ai_finance_assistant.entity.MessageArchive;
+import com.example.ai_finance_assistant.repository.ConversationRepository;
+import com.example.ai_finance_assistant.repository.MessageArchiveRepository;
+import com.example.ai_finance_assistant.repository.MessageRepository;
+import com.example.ai_finance_assistant.service.MessageArchiveCodec.ArchivedMessage;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import tools.jackson.databind.ObjectMapper;
+
+//hot/cold tiering for messages: conversations idle for longer than idle-after are moved out of the messages table
+//into one compressed message_archive row each, and moved back the first time they're used again.
+//the messages table only holds conversations people are actually having, so its index and vacuum stay small
+@Component
+public class MessageArchiver {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageArchiver.class);
+
+    private static final String INSERT_SQL =
+            "INSERT INTO messages (role, content, tokens, status, created_at, conversation_id) VALUES (?, ?, ?, ?, ?, ?)";
+
+    private final ConversationRepository conversationRepository;
+    private final MessageRepository messageRepository;
+    private final MessageArchiveRepository archiveRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final MessageArchiveCodec codec;
+
+    private final boolean enabled;
+    private final Duration idleAfter;
+    private final int batchSize;
+
+    private final AtomicLong archived = new AtomicLong();
+    private final AtomicLong rehydrated = new AtomicLong();
+
+    public MessageArchiver(ConversationRepository conversationRepository, MessageRepository messageRepository,
+                           MessageArchiveRepository archiveRepository, JdbcTemplate jdbcTemplate,
+                           PlatformTransactionManager transactionManager, ObjectMapper objectMapper,
+                           @Value("${app.archive.enabled:true}") boolean enabled,
+                           @Value("${app.archive.idle-after:30d}") Duration idleAfter,
+                           @Value("${app.archive.batch-size:100}") int batchSize) {
+        this.conversationRepository = conversationRepository;
+        this.messageRepository = messageRepository;
+        this.archiveRepository = archiveRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.codec = new MessageArchiveCodec(objectMapper);
+        this.enabled = enabled;
+        this.idleAfter = idleAfter;
+        this.batchSize = batchSize;
+    }
+
+    //one batch per run, whatever is left is picked up by the next one
+    @Scheduled(initialDelayString = "${app.archive.interval:1h}", fixedDelayString = "${app.archive.interval:1h}")
+    public void archiveIdleConversations(){
+        if(!enabled){
+            return;
+        }
+        LocalDateTime idleSince = LocalDateTime.now().minus(idleAfter);
+        for(Long conversationId: conversationRepository.findIdleConversationIds(idleSince, batchSize)){
+            try{
+                archive(conversationId, idleSince);
+            }catch(RuntimeException e){
+                log.warn("Couldn't archive conversation {}", conversationId, e);
+            }
+        }
+    }
+
+    //move the conversation's messages into its archive row (merged with what's already archived), if it's still idle.
+    //the conversation row stays locked until the messages are gone, so nothing can be added in between
+    boolean archive(Long conversationId, LocalDateTime idleSince){
+        Boolean done = transactionTemplate.execute(status -> {
+            conversationRepository.lockById(conversationId);
+            List<Message> messages = messageRepository.findByConversationIdOrderByCreatedAtAsc(conversationId);
+            if(messages.isEmpty() || !messages.get(messages.size() - 1).getCreatedAt().isBefore(idleSince)){
+                return false;
+            }
+
+            List<ArchivedMessage> all = new ArrayList<>();
+            archiveRepository.findById(conversationId).ifPresent(existing -> all.addAll(codec.decode(existing.getPayload())));
+            for(Message message: messages){
+                all.add(ArchivedMessage.of(message));
+            }
+            MessageArchiveCodec.Encoded encoded = codec.encode(all);
+            archiveRepository.save(new MessageArchive(conversationId, all.size(), encoded.rawBytes(), encoded.payload(),
+                    all.get(all.size() - 1).createdAt()));
+            messageRepository.deleteByConversationId(conversationId);
+            log.debug("Archived {} messages of conversation {} ({} -> {} bytes)", messages.size(), conversationId,
+                    encoded.rawBytes(), encoded.payload().length);
+            return true;
+        });
+        if(Boolean.TRUE.equals(done)){
+            archived.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    //put an archived conversation's messages back into the messages table, false if it wasn't archived.
+    //the common case (not archived) is a single primary key lookup
+    public boolean rehydrate(Long conversationId){
+        if(!archiveRepository.existsById(conversationId)){
+            return false;
+        }
+        Boolean done = transactionTemplate.execute(status -> {
+            conversationRepository.lockById(conversationId);
+            //a concurrent request may have brought it back while we waited for the lock
+            MessageArchive archive = archiveRepository.findById(conversationId).orElse(null);
+            if(archive == null){
+                return false;
+            }
+            List<ArchivedMessage> messages = codec.decode(archive.getPayload());
+            jdbcTemplate.batchUpdate(INSERT_SQL, messages, messages.size(), (ps, message) -> {
+                ps.setString(1, message.role());
+                ps.setString(2, message.content());
+                if(message.tokens() != null){
+                    ps.setInt(3, message.tokens());
+                }else{
+                    ps.setNull(3, Types.INTEGER);
+                }
+                ps.setString(4, message.status() != null ? message.status().name() : null);
+                ps.setTimestamp(5, Timestamp.valueOf(message.createdAt()));
+                ps.setLong(6, conversationId);
+            });
+            archiveRepository.delete(archive);
+            return true;
+        });
+        if(Boolean.TRUE.equals(done)){
+            rehydrated.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    //same, off the calling thread, for the reactive chat turn
+    public Mono<Void> rehydrateAsync(Long conversationId){
+        return Mono.fromCallable(() -> rehydrate(conversationId))
+                .subscribeOn(Schedulers.boundedElastic())
+                .then();
+    }
+
+    public long getArchivedCount(){
+        return archived.get();
+    }
+
+    public long getRehydratedCount(){
+        return rehydrated.get();
+    }
+}
@@ -0,0 +1,80 @@
+package com.example.ai_finance_assistant.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.example.ai_finance_assistant.dto.SearchCursor;
+import com.example.ai_finance_assistant.dto.SearchHit;
+import com.example.ai_finance_assistant.dto.SearchPage;
+import com.example.ai_finance_assistant.exception.ForbiddenException;
+import com.example.ai_finance_assistant.exception.InvalidRequestException;
+import com.example.ai_finance_assistant.repository.MessageRepository;
+import com.example.ai_finance_assistant.repository.MessageSearchHit;
+
+//full-text search over saved messages, within one conversation or (with the admin token) across all of them.
+//archived conversations aren't searchable until they're used again and their messages are moved back
+@Service
+public class MessageSearchService {
+
+    //ts_headline options: up to two fragments of about a dozen words, matches in markdown bold like the answers use
+    private static final String HEADLINE_OPTIONS = "MaxFragments=2, MinWords=5, MaxWords=12, FragmentDelimiter=\" … \", "
+            + "StartSel=**, StopSel=**";
+
+    private final MessageRepository messageRepository;
+    private final int maxQueryLength;
+    private final int maxCandidates;
+    private final byte[] adminToken;
+
+    public MessageSearchService(MessageRepository messageRepository,
+                                @Value("${app.search.max-query-length:200}") int maxQueryLength,
+                                @Value("${app.search.max-candidates:10000}") int maxCandidates,
+                                @Value("${app.search.admin-token:}") String adminToken) {
+        this.messageRepository = messageRepository;
+        this.maxQueryLength = maxQueryLength;
+        this.maxCandidates = maxCandidates;
+        this.adminToken = adminToken.getBytes(StandardCharsets.UTF_8);
+    }
+
+    public SearchPage searchConversation(Long conversationId, String query, String cursor, int limit){
+        SearchCursor after = cursor == null ? SearchCursor.START : SearchCursor.decode(cursor);
+        //one extra row tells us whether there is a next page
+        return page(messageRepository.searchConversation(conversationId, checkQuery(query), after.rank(),
+                after.id(), limit + 1, maxCandidates, HEADLINE_OPTIONS), limit);
+    }
+
+    //every conversation, only with the admin token (and never when none is configured)
+    public SearchPage searchAll(String token, String query, String cursor, int limit){
+        if(adminToken.length == 0 || token == null
+                || !MessageDigest.isEqual(adminToken, token.getBytes(StandardCharsets.UTF_8))){
+            throw new ForbiddenException("Searching all conversations needs the admin token");
+        }
+        SearchCursor after = cursor == null ? SearchCursor.START : SearchCursor.decode(cursor);
+        return page(messageRepository.searchAll(checkQuery(query), after.rank(), after.id(), limit + 1,
+                maxCandidates, HEADLINE_OPTIONS), limit);
+    }
+
+    private String checkQuery(String query){
+        if(query == null || query.isBlank()){
+            throw new InvalidRequestException("A search needs a query");
+        }
+        if(query.length() > maxQueryLength){
+            throw new InvalidRequestException("Search queries are limited to " + maxQueryLength + " characters");
+        }
+        return query;
+    }
+
+    private static SearchPage page(List<MessageSearchHit> rows, int limit){
+        boolean hasMore = rows.size() > limit;
+        List<MessageSearchHit> page = hasMore ? rows.subList(0, limit) : rows;
+        MessageSearchHit last = page.isEmpty() ? null : page.get(page.size() - 1);
+        return new SearchPage(
+                page.stream().map(row -> new SearchHit(row.getSessionId().toString(), row.getRole(), row.getSnippet(),
+                        row.getCreatedAt(), row.getRank())).toList(),
+                hasMore ? new SearchCursor(last.getRank(), last.getId()).encode() : null,
+                !page.isEmpty() && Boolean.TRUE.equals(page.get(0).getCapped()));
+    }
+}
@@ -0,0 +1,284 @@
+package com.example.ai_finance_assistant.service;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.server.context.WebServerApplicationContext;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.ai_finance_assistant.entity.Message;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+//write-behind persistence for chat messages: callers just enqueue, a dedicated worker thread writes them in jdbc batches
+//so db latency never blocks the request/event loop threads that are streaming tokens
+@Component
+public class MessageWriteBehind implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageWriteBehind.class);
+
+    private static final String INSERT_SQL =
+            "INSERT INTO messages (role, content, tokens, status, created_at, conversation_id) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final Duration FIRST_RETRY_DELAY = Duration.ofMillis(100);
+    private static final Duration MAX_RETRY_DELAY = Duration.ofSeconds(5);
+    //how long stop() gives the worker to write what's queued before whatever is left gets one last attempt
+    private static final Duration SHUTDOWN_GRACE = Duration.ofSeconds(5);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final BlockingQueue<Message> queue;
+    private final int batchSize;
+    private final Duration flushInterval;
+    private final Duration maxRetryTime;
+    private final Duration enqueueTimeout;
+
+    private final Timer flushTimer;
+    private final DistributionSummary batchSizes;
+    private final Counter synchronousWrites;
+    private final Counter droppedMessages;
+
+    private volatile boolean running;
+    private volatile long stopDeadline;
+    private Thread worker;
+
+    public MessageWriteBehind(JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager,
+                              @Value("${app.write-behind.queue-capacity:10000}") int queueCapacity,
+                              @Value("${app.write-behind.batch-size:100}") int batchSize,
+                              @Value("${app.write-behind.flush-interval:50ms}") Duration flushInterval,
+                              @Value("${app.write-behind.max-retry-time:2m}") Duration maxRetryTime,
+                              @Value("${app.write-behind.enqueue-timeout:10s}") Duration enqueueTimeout,
+                              MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSize = batchSize;
+        this.flushInterval = flushInterval;
+        this.maxRetryTime = maxRetryTime;
+        this.enqueueTimeout = enqueueTimeout;
+
+        Gauge.builder("chat.write_behind.pending", queue, BlockingQueue::size)
+                .description("Messages waiting to be written")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("chat.write_behind.flush")
+                .description("Time to write one batch of messages, retries included")
+                .register(meterRegistry);
+        this.batchSizes = DistributionSummary.builder("chat.write_behind.batch_size")
+                .description("Messages per written batch")
+                .register(meterRegistry);
+        this.synchronousWrites = Counter.builder("chat.write_behind.synchronous")
+                .description("Messages written outside the worker because the queue stayed full or was stopped")
+                .register(meterRegistry);
+        this.droppedMessages = Counter.builder("chat.write_behind.dropped")
+                .description("Messages dropped because the db rejected them, or stayed unreachable for app.write-behind.max-retry-time")
+                .register(meterRegistry);
+    }
+
+    //queue a message for writing. completes right away while there's room. a full queue (the worker is behind or retrying
+    //a failed batch) is backpressure: the caller waits for room on boundedElastic, never on its own thread, which is
+    //usually an event loop. if there's still no room after enqueue-timeout, or we're stopped, the message is written there
+    public Mono<Void> enqueue(Message message){
+        return Mono.defer(() -> {
+            if(running && queue.offer(message)){
+                return Mono.<Void>empty();
+            }
+            return Mono.<Void>fromRunnable(() -> enqueueOrWrite(message)).subscribeOn(Schedulers.boundedElastic());
+        });
+    }
+
+    private void enqueueOrWrite(Message message){
+        try{
+            if(running && queue.offer(message, enqueueTimeout.toMillis(), TimeUnit.MILLISECONDS)){
+                return;
+            }
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        if(running){
+            log.warn("Write-behind queue stayed full ({} messages) for {}, writing message directly", queue.size(), enqueueTimeout);
+        }
+        synchronousWrites.increment();
+        flush(List.of(message));
+    }
+
+    public int pending(){
+        return queue.size();
+    }
+
+    private void runWorker(){
+        List<Message> batch = new ArrayList<>(batchSize);
+        while(running || !queue.isEmpty()){
+            try{
+                Message first = queue.poll(flushInterval.toMillis(), TimeUnit.MILLISECONDS);
+                if(first == null){
+                    continue;
+                }
+                batch.add(first);
+
+                //fill the batch until it's full or the flush interval is up
+                long deadline = System.nanoTime() + flushInterval.toNanos();
+                while(batch.size() < batchSize){
+                    queue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if(batch.size() >= batchSize || remaining <= 0 || !running){
+                        break;
+                    }
+                    Message next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if(next == null){
+                        break;
+                    }
+                    batch.add(next);
+                }
+
+                flush(batch);
+            }catch(InterruptedException e){
+                //stop() interrupts us once the queue is drained, anything left gets flushed there
+                Thread.currentThread().interrupt();
+                break;
+            }finally{
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Message> batch){
+        batchSizes.record(batch.size());
+        long start = System.nanoTime();
+        try{
+            write(batch);
+        }finally{
+            flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    //a transient failure (the db is unreachable or briefly unhappy) is retried with backoff until the batch is written or
+    //max-retry-time is up. the worker holds on to the batch meanwhile, so it stays at the head: nothing queued after it
+    //gets written first, and the queue filling up pushes back on callers. once stopping, retries end at the shutdown deadline.
+    //anything else (a NUL byte postgres won't store, a constraint) won't go away by waiting: the batch is written one
+    //message at a time instead, so only the bad message is dropped
+    private void write(List<Message> batch){
+        long start = System.nanoTime();
+        long giveUpAt = start + maxRetryTime.toNanos();
+        Duration delay = FIRST_RETRY_DELAY;
+        for(int attempt = 1; ; attempt++){
+            try{
+                insert(batch);
+                if(attempt > 1){
+                    log.info("Wrote {} messages after {} attempts", batch.size(), attempt);
+                }
+                return;
+            }catch(RuntimeException e){
+                if(!isTransient(e)){
+                    if(batch.size() == 1){
+                        drop(batch, attempt, System.nanoTime() - start, e);
+                        return;
+                    }
+                    log.warn("Failed to write {} messages, writing them one at a time: {}", batch.size(), e.getMessage());
+                    for(Message message: batch){
+                        write(List.of(message));
+                    }
+                    return;
+                }
+                long now = System.nanoTime();
+                long deadline = running ? giveUpAt : Math.min(giveUpAt, stopDeadline);
+                if(now - deadline >= 0){
+                    drop(batch, attempt, now - start, e);
+                    return;
+                }
+                log.warn("Failed to write {} messages (attempt {}), retrying in {}: {}", batch.size(), attempt, delay, e.getMessage());
+                try{
+                    Thread.sleep(Math.max(1, Math.min(delay.toMillis(), TimeUnit.NANOSECONDS.toMillis(deadline - now))));
+                }catch(InterruptedException interrupted){
+                    Thread.currentThread().interrupt();
+                    drop(batch, attempt, System.nanoTime() - start, e);
+                    return;
+                }
+                delay = delay.multipliedBy(2).compareTo(MAX_RETRY_DELAY) > 0 ? MAX_RETRY_DELAY : delay.multipliedBy(2);
+            }
+        }
+    }
+
+    private static boolean isTransient(RuntimeException e){
+        return e instanceof TransientDataAccessException
+                || e instanceof DataAccessResourceFailureException
+                || e instanceof CannotCreateTransactionException;
+    }
+
+    private void drop(List<Message> batch, int attempts, long nanos, RuntimeException cause){
+        droppedMessages.increment(batch.size());
+        log.error("Dropping {} chat messages of conversations {}: {} write attempts over {} ms failed, last error: {}",
+                batch.size(), batch.stream().map(message -> message.getConversation().getId()).distinct().toList(),
+                attempts, TimeUnit.NANOSECONDS.toMillis(nanos), cause.getMessage(), cause);
+    }
+
+    private void insert(List<Message> batch){
+        transactionTemplate.executeWithoutResult(status ->
+                jdbcTemplate.batchUpdate(INSERT_SQL, batch, batch.size(), (ps, message) -> {
+                    ps.setString(1, message.getRole());
+                    ps.setString(2, message.getContent());
+                    ps.setInt(3, message.getTokens());
+                    ps.setString(4, message.getStatus().name());
+                    ps.setTimestamp(5, Timestamp.valueOf(message.getCreatedAt()));
+                    //a conversation reference, its id is available without loading it
+                    ps.setLong(6, message.getConversation().getId());
+                }));
+    }
+
+    @Override
+    public void start(){
+        running = true;
+        worker = new Thread(this::runWorker, "message-write-behind");
+        worker.start();
+    }
+
+    //drain everything that's still queued before the datasource goes away
+    @Override
+    public void stop(){
+        stopDeadline = System.nanoTime() + SHUTDOWN_GRACE.toNanos();
+        running = false;
+        try{
+            worker.join(flushInterval.toMillis() * 2 + SHUTDOWN_GRACE.toMillis());
+        }catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+        worker.interrupt();
+
+        List<Message> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if(!remaining.isEmpty()){
+            flush(remaining);
+        }
+        log.info("Message write-behind stopped");
+    }
+
+    @Override
+    public boolean isRunning(){
+        return running;
+    }
+
+    //stop after the web server so messages from requests that were still in flight get written too
+    @Override
+    public int getPhase(){
+        return WebServerApplicationContext.START_STOP_LIFECYCLE_PHASE - 1024;
+    }
+}
@@ -1,45 +1,239 @@
 package com.example.ai_finance_assistant.service;
 
 import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ClientHttpRequest;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.BodyInserter;
+import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 
+import com.example.ai_finance_assistant.config.OpenAIConnectionPoolMetrics;
+
 import com.example.ai_finance_assistant.dto.openai.OpenAIRequest;
-import com.example.ai_finance_assistant.dto.openai.OpenAIStreamResponse;
+import com.example.ai_finance_assistant.dto.openai.StreamDelta;
 import com.example.ai_finance_assistant.exception.InvalidRequestException;
 import com.example.ai_finance_assistant.exception.RateLimitException;
 import com.example.ai_finance_assistant.exception.ServiceUnavailableException;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 import reactor.util.retry.Retry;
-import tools.jackson.databind.ObjectMapper;
 
 
 @Service
 public class OpenAIClient {
+    private static final Logger log = LoggerFactory.getLogger(OpenAIClient.class);
 
     private final WebClient webclient;
-    private final ObjectMapper objectMapper;
+    private final StreamDeltaParser deltaParser;
+    private final OpenAIRequestEncoder requestEncoder;
+    private final AdmissionController admissionController;
+    private final HedgingPolicy hedgingPolicy;
+    private final TokenCounterService tokenCounterService;
+    private final OpenAIConnectionPoolMetrics poolMetrics;
+    private final int prewarmConnections;
+    private final MeterRegistry meterRegistry;
+
+    //identical requests that are in flight at the same time share one upstream stream
+    private final SingleFlight<OpenAIRequest, StreamDelta> singleFlight = new SingleFlight<>();
 
-    public OpenAIClient(@Value("${openai.api.key}") String apikey, ObjectMapper objectMapper){
+    public OpenAIClient(@Value("${openai.api.key}") String apikey,
+                        @Value("${openai.api.base-url:https://api.openai.com/v1}") String baseUrl,
+                        StreamDeltaParser deltaParser, OpenAIRequestEncoder requestEncoder,
+                        AdmissionController admissionController, HedgingPolicy hedgingPolicy,
+                        TokenCounterService tokenCounterService,
+                        ReactorClientHttpConnector openAIConnector, OpenAIConnectionPoolMetrics poolMetrics,
+                        @Value("${app.openai.http.prewarm-connections:2}") int prewarmConnections,
+                        MeterRegistry meterRegistry, ObservationRegistry observationRegistry){
         this.webclient = WebClient.builder()
-                .baseUrl("https://api.openai.com/v1")
+                .baseUrl(baseUrl)
+                //http.client.requests, tagged with the status code (or CLIENT_ERROR when no response came back) and outcome
+                .observationRegistry(observationRegistry)
+                .clientConnector(openAIConnector)
                 .defaultHeader("Authorization", "Bearer "+apikey)
                 .defaultHeader("Content-Type", "application/json")
+                //every response carries our current rate limit budget, keep the admission controller in step with it
+                .filter(ExchangeFilterFunction.ofResponseProcessor(response -> {
+                    admissionController.calibrate(response.headers().asHttpHeaders());
+                    return Mono.just(response);
+                }))
                 .build();
-        this.objectMapper = objectMapper;
+        this.deltaParser = deltaParser;
+        this.requestEncoder = requestEncoder;
+        this.admissionController = admissionController;
+        this.hedgingPolicy = hedgingPolicy;
+        this.tokenCounterService = tokenCounterService;
+        this.poolMetrics = poolMetrics;
+        this.prewarmConnections = prewarmConnections;
+        this.meterRegistry = meterRegistry;
+    }
+
+    //open a few connections (tcp + tls) at startup so the first chats don't pay for the handshakes.
+    //a HEAD on /models is cheap and doesn't count against the token budget, failures only mean we start cold
+    @EventListener(ApplicationReadyEvent.class)
+    public void prewarmConnections(){
+        if(prewarmConnections <= 0){
+            return;
+        }
+        Flux.range(0, prewarmConnections)
+                .flatMap(i -> webclient.head().uri("/models")
+                        .exchangeToMono(response -> response.releaseBody().thenReturn(true))
+                        .onErrorResume(e -> {
+                            log.debug("Connection prewarm failed: {}", e.getMessage());
+                            return Mono.just(false);
+                        }))
+                .filter(opened -> opened)
+                .count()
+                .subscribe(opened -> log.info("Prewarmed {} of {} OpenAI connections ({})", opened, prewarmConnections, poolMetrics));
     }
 
+    //just the streamed text, empty deltas (the role-only first chunk, the finish chunk) are dropped
     public Flux<String> createChatCompletion(OpenAIRequest request){
+        return streamChatCompletion(request)
+                .filter(StreamDelta::hasContent)
+                .map(StreamDelta::content);
+    }
+
+    //every delta of the stream, including the finish_reason
+    public Flux<StreamDelta> streamChatCompletion(OpenAIRequest request){
+        return streamChatCompletion(request, tokenCounterService.estimatePromptTokens(request.messages()));
+    }
+
+    //same, for callers that already know roughly how big the prompt is
+    public Flux<StreamDelta> streamChatCompletion(OpenAIRequest request, int promptTokens){
+        int estimatedTokens = promptTokens + (request.max_tokens() != null ? request.max_tokens() : 0);
+        return singleFlight.execute(request, r -> hedged(r, estimatedTokens));
+    }
+
+    //if the first delta takes longer than the hedging policy's threshold, a second call (the same request, or the fallback
+    //model) races the first one. whichever delivers a delta first is kept and the other is cancelled, which also releases
+    //its admission permit. either call failing before its first delta drops out and leaves the race to the other one,
+    //the error only comes through if there is no other call left in flight
+    private Flux<StreamDelta> hedged(OpenAIRequest request, int estimatedTokens){
+        if(!hedgingPolicy.isEnabled()){
+            return admitted(request, estimatedTokens);
+        }
+        return Flux.defer(() -> {
+            hedgingPolicy.onCall();
+            AtomicInteger inFlight = new AtomicInteger(1);
+            Flux<StreamDelta> first = timeFirstDelta(admitted(request, estimatedTokens))
+                    .transform(deltas -> dropOutOnEarlyError(deltas, inFlight));
+            Flux<StreamDelta> hedge = Mono.delay(hedgingPolicy.delay())
+                    .flatMapMany(tick -> {
+                        if(inFlight.get() == 0 || !hedgingPolicy.tryHedge()){
+                            return Flux.never();
+                        }
+                        inFlight.incrementAndGet();
+                        return dropOutOnEarlyError(hedge(hedgingPolicy.hedgeRequest(request), estimatedTokens), inFlight);
+                    });
+            return Flux.firstWithSignal(first, hedge);
+        });
+    }
+
+    private Flux<StreamDelta> hedge(OpenAIRequest request, int estimatedTokens){
+        AtomicBoolean started = new AtomicBoolean();
+        return admitted(request, estimatedTokens)
+                .doOnNext(delta -> {
+                    if(started.compareAndSet(false, true)){
+                        hedgingPolicy.hedgeWon();
+                        log.info("Hedged OpenAI request delivered first (model {})", request.model());
+                    }
+                });
+    }
+
+    //an error before the first delta goes quiet while the other call of the race is still in flight, once a delta came
+    //through the race is decided and errors pass as they are
+    private Flux<StreamDelta> dropOutOnEarlyError(Flux<StreamDelta> deltas, AtomicInteger inFlight){
+        return Flux.defer(() -> {
+            AtomicBoolean started = new AtomicBoolean();
+            return deltas.doOnNext(delta -> started.set(true))
+                    .onErrorResume(e -> {
+                        if(started.get() || inFlight.decrementAndGet() == 0){
+                            return Flux.error(e);
+                        }
+                        log.debug("OpenAI call of a hedged request failed before its first delta, the other call carries on: {}", e.getMessage());
+                        return Flux.never();
+                    });
+        });
+    }
+
+    //feeds the hedging threshold: time from subscribing to the first delta, or to being cancelled before one came
+    private Flux<StreamDelta> timeFirstDelta(Flux<StreamDelta> deltas){
+        return Flux.defer(() -> {
+            long start = System.nanoTime();
+            AtomicBoolean recorded = new AtomicBoolean();
+            Runnable record = () -> {
+                if(recorded.compareAndSet(false, true)){
+                    hedgingPolicy.recordFirstDelta(System.nanoTime() - start);
+                }
+            };
+            return deltas.doOnNext(delta -> record.run()).doOnCancel(record);
+        });
+    }
+
+    //only goes upstream once the admission controller lets it, the permit is released however the stream ends
+    private Flux<StreamDelta> admitted(OpenAIRequest request, int estimatedTokens){
+        return Flux.defer(() -> {
+            AtomicInteger usedTokens = new AtomicInteger(-1);
+            return Flux.usingWhen(
+                    admissionController.acquire(estimatedTokens),
+                    permit -> send(request).doOnNext(delta -> {
+                        if (delta.usage() != null) {
+                            usedTokens.set(delta.usage().promptTokens() + delta.usage().completionTokens());
+                        }
+                    }),
+                    permit -> Mono.fromRunnable(() -> permit.complete(usedTokens.get())),
+                    (permit, error) -> Mono.fromRunnable(() -> permit.fail(error)),
+                    permit -> Mono.fromRunnable(() -> permit.complete(usedTokens.get())));
+        });
+    }
+
+    private void countRetry(Throwable failure){
+        Counter.builder("openai.retries")
+                .description("Upstream calls retried after a failure")
+                .tag("reason", failure.getClass().getSimpleName())
+                .register(meterRegistry)
+                .increment();
+    }
+
+    public long getCoalescedRequestCount(){
+        return singleFlight.joined();
+    }
+
+    //the body goes out as one buffer from the connection's allocator, encoded again on every (re)subscription
+    private BodyInserter<OpenAIRequest, ClientHttpRequest> encodedBody(OpenAIRequest request){
+        return (message, context) -> Mono.fromSupplier(() -> requestEncoder.encode(request, message.bufferFactory()))
+                .flatMap(buffer -> {
+                    message.getHeaders().setContentLength(buffer.readableByteCount());
+                    return message.writeWith(Mono.just(buffer).doOnDiscard(DataBuffer.class, DataBufferUtils::release));
+                });
+    }
+
+    //package-private so tests can stand in for upstream
+    Flux<StreamDelta> send(OpenAIRequest request){
         return webclient.post()
                 .uri("/chat/completions")
                 .accept(MediaType.TEXT_EVENT_STREAM)
-                .bodyValue(request)
+                .body(encodedBody(request))
                 .retrieve()
                 .onStatus(
                         HttpStatus.TOO_MANY_REQUESTS::equals,
@@ -56,36 +250,23 @@ public class OpenAIClient {
                         response -> response.bodyToMono(String.class)
                                 .map(body -> new ServiceUnavailableException("OpenAI service unavailable: " + body))
                 )
-                .bodyToFlux(String.class)
+                .bodyToFlux(DataBuffer.class)
+                .transform(deltaParser::decode)
                 .retryWhen(Retry.backoff(3, Duration.ofSeconds(1))
                         .filter(throwable -> throwable instanceof ServiceUnavailableException)
-                        .doBeforeRetry(signal ->
-                                System.out.println("Retrying request... Attempt: " + (signal.totalRetries() + 1))
-                        )
+                        .doBeforeRetry(signal -> {
+                            countRetry(signal.failure());
+                            log.warn("Retrying OpenAI request, attempt {}: {}", signal.totalRetries() + 1, signal.failure().getMessage());
+                        })
                 )
-                .onErrorResume(WebClientResponseException.class, e -> {
-                    System.out.println("Webclient error: " + e.getStatusCode() + " - " + e.getMessage());
+                //couldn't connect or waited too long for a pooled connection
+                .onErrorResume(WebClientRequestException.class, e -> {
+                    log.warn("OpenAI request failed before a response ({}): {}", poolMetrics, e.getMessage());
                     return Flux.error(new ServiceUnavailableException("Failed to connect to OpenAI"));
                 })
-                .filter(line -> !line.equals("[DONE]"))
-                .map(this::extractContent);
-    }
-
-    private String extractContent(String jsonLine) {
-        try {
-            // Parse the raw JSON directly (no "data:" prefix)
-            OpenAIStreamResponse response = objectMapper.readValue(jsonLine, OpenAIStreamResponse.class);
-            if (response.choices() != null && !response.choices().isEmpty()) {
-                OpenAIStreamResponse.Delta delta = response.choices().get(0).delta();
-                if (delta != null && delta.content() != null) {
-                    String content = delta.content();
-
-                    return content;
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("Parse error: " + e.getMessage());
-        }
-        return "";
+                .onErrorResume(WebClientResponseException.class, e -> {
+                    log.warn("OpenAI request failed with status {}: {}", e.getStatusCode().value(), e.getMessage());
+                    return Flux.error(new ServiceUnavailableException("Failed to connect to OpenAI"));
+                });
     }
 }
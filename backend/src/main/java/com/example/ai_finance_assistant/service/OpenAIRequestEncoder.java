@@ -0,0 +1,130 @@
+package com.example.ai_finance_assistant.service;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Component;
+
+import com.example.ai_finance_assistant.dto.openai.OpenAIMessage;
+import com.example.ai_finance_assistant.dto.openai.OpenAIRequest;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import tools.jackson.core.JsonGenerator;
+import tools.jackson.core.ObjectWriteContext;
+import tools.jackson.core.json.JsonFactory;
+
+//writes the chat completion request body. everything up to and including the system message (model, parameters,
+//the long tutor prompt) is the same turn after turn, so it's encoded once and copied in as bytes, only the
+//summary, history and user message get encoded per turn, straight into the buffer that goes on the wire.
+//messages keep the order they have in the request (system, summary, history, user), which keeps the upstream prompt prefix stable
+@Component
+public class OpenAIRequestEncoder {
+
+    //a few distinct prefixes at most (the tutor and the summarizer), the bound is only a safety net
+    private static final int MAX_PREFIXES = 64;
+
+    //no separator between root level values, the per-turn messages are written one after the other as roots
+    private final JsonFactory jsonFactory = JsonFactory.builder().rootValueSeparator((String) null).build();
+    private final Cache<PrefixKey, Prefix> prefixes = Caffeine.newBuilder().maximumSize(MAX_PREFIXES).build();
+
+    //what the pre-encoded part depends on
+    record PrefixKey(String model, Integer maxTokens, Boolean stream, Boolean includeUsage, String systemPrompt) {}
+
+    //bytes of {"model":...,"messages":[ plus the system message if there is one
+    record Prefix(byte[] bytes, boolean hasMessage) {}
+
+    //the body in a buffer from the given factory (the connection's pooled allocator when called from WebClient).
+    //the caller owns the buffer
+    public DataBuffer encode(OpenAIRequest request, DataBufferFactory bufferFactory){
+        List<OpenAIMessage> messages = request.messages();
+        Prefix prefix = prefixOf(request);
+        int first = prefix.hasMessage() ? 1 : 0;
+
+        DataBuffer buffer = bufferFactory.allocateBuffer(prefix.bytes().length + estimateSize(messages, first));
+        try{
+            buffer.write(prefix.bytes());
+            try(JsonGenerator generator = jsonFactory.createGenerator(ObjectWriteContext.empty(), buffer.asOutputStream())){
+                for(int i = first; i < messages.size(); i++){
+                    if(i > 0){
+                        generator.writeRaw(',');
+                    }
+                    writeMessage(generator, messages.get(i));
+                }
+                generator.writeRaw("]}");
+            }
+            return buffer;
+        }catch(RuntimeException e){
+            DataBufferUtils.release(buffer);
+            throw e;
+        }
+    }
+
+    private Prefix prefixOf(OpenAIRequest request){
+        List<OpenAIMessage> messages = request.messages();
+        String systemPrompt = !messages.isEmpty() && "system".equals(messages.get(0).role()) ? messages.get(0).content() : null;
+        Boolean includeUsage = request.stream_options() != null ? request.stream_options().include_usage() : null;
+        PrefixKey key = new PrefixKey(request.model(), request.max_tokens(), request.stream(), includeUsage, systemPrompt);
+        return prefixes.get(key, k -> encodePrefix(request, k));
+    }
+
+    //field names and null handling match what jackson writes for the OpenAIRequest record
+    private Prefix encodePrefix(OpenAIRequest request, PrefixKey key){
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256 + (key.systemPrompt() != null ? key.systemPrompt().length() : 0));
+        JsonGenerator generator = jsonFactory.createGenerator(ObjectWriteContext.empty(), out);
+        generator.writeStartObject();
+        if(key.model() != null){
+            generator.writeStringProperty("model", key.model());
+        }
+        if(key.maxTokens() != null){
+            generator.writeNumberProperty("max_tokens", key.maxTokens());
+        }
+        if(key.stream() != null){
+            generator.writeBooleanProperty("stream", key.stream());
+        }
+        if(request.stream_options() != null){
+            generator.writeName("stream_options");
+            generator.writeStartObject();
+            if(key.includeUsage() != null){
+                generator.writeBooleanProperty("include_usage", key.includeUsage());
+            }
+            generator.writeEndObject();
+        }
+        generator.writeName("messages");
+        generator.writeStartArray();
+        if(key.systemPrompt() != null){
+            writeMessage(generator, request.messages().get(0));
+        }
+        //flushed but not closed, closing would end the open array and object
+        generator.flush();
+        return new Prefix(out.toByteArray(), key.systemPrompt() != null);
+    }
+
+    private static void writeMessage(JsonGenerator generator, OpenAIMessage message){
+        generator.writeStartObject();
+        if(message.role() != null){
+            generator.writeStringProperty("role", message.role());
+        }
+        if(message.content() != null){
+            generator.writeStringProperty("content", message.content());
+        }
+        generator.writeEndObject();
+    }
+
+    //utf-8 of mostly ascii text plus the json around each message, the buffer grows if it's off
+    private static int estimateSize(List<OpenAIMessage> messages, int first){
+        int size = 2;
+        for(int i = first; i < messages.size(); i++){
+            OpenAIMessage message = messages.get(i);
+            size += 32 + (message.content() != null ? message.content().length() : 0);
+        }
+        return size;
+    }
+
+    long prefixCount(){
+        return prefixes.estimatedSize();
+    }
+}
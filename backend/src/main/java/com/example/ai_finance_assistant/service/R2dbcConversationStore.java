@@ -0,0 +1,130 @@
+package com.example.ai_finance_assistant.service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Component;
+
+import com.example.ai_finance_assistant.dto.ConversationSummary;
+import com.example.ai_finance_assistant.entity.Message;
+import com.example.ai_finance_assistant.entity.MessageStatus;
+import com.example.ai_finance_assistant.repository.MessageRepository;
+
+import io.r2dbc.spi.Readable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+//the chat turn's persistence over r2dbc, nothing here blocks a thread
+@Component
+@ConditionalOnProperty(name = "app.persistence.mode", havingValue = "r2dbc")
+public class R2dbcConversationStore implements ConversationStore {
+
+    private final DatabaseClient db;
+
+    public R2dbcConversationStore(DatabaseClient db) {
+        this.db = db;
+    }
+
+    //insert first, a session that already exists makes it a no-op instead of a unique constraint violation.
+    //stays with the ON CONFLICT form h2 understands too (the tests run on it), so an existing session costs a second select
+    @Override
+    public Mono<Long> findOrCreateConversationId(UUID sessionId){
+        return insertConversation(sessionId)
+                .switchIfEmpty(Mono.defer(() -> findConversationId(sessionId)));
+    }
+
+    private Mono<Long> findConversationId(UUID sessionId){
+        return db.sql("SELECT id FROM conversations WHERE session_id = :sessionId")
+                .bind("sessionId", sessionId)
+                .map(row -> row.get("id", Long.class))
+                .one();
+    }
+
+    private Mono<Long> insertConversation(UUID sessionId){
+        return db.sql("INSERT INTO conversations (session_id, created_at) VALUES (:sessionId, :createdAt) ON CONFLICT DO NOTHING")
+                .bind("sessionId", sessionId)
+                .bind("createdAt", LocalDateTime.now())
+                .filter(statement -> statement.returnGeneratedValues("id"))
+                .map(row -> row.get("id", Long.class))
+                .one();
+    }
+
+    //the same recursive query as the jpa store: one index probe per message walking backwards, stopping as soon as the
+    //next older message would go over budget, so what's read is bounded by the budget and not the conversation length
+    @Override
+    public Mono<List<Message>> findTokenBudgetedTail(Long conversationId, int maxTokens, int maxRows){
+        return db.sql(MessageRepository.TOKEN_BUDGETED_TAIL)
+                .bind("conversationId", conversationId)
+                .bind("maxTokens", maxTokens)
+                .bind("maxRows", maxRows)
+                .map(this::toMessage)
+                .all()
+                .collectList();
+    }
+
+    @Override
+    public Mono<Void> saveMessage(Long conversationId, Message message){
+        DatabaseClient.GenericExecuteSpec insert = db.sql("INSERT INTO messages (role, content, tokens, status, created_at, conversation_id) "
+                        + "VALUES (:role, :content, :tokens, :status, :createdAt, :conversationId)")
+                .bind("role", message.getRole())
+                .bind("content", message.getContent())
+                .bind("status", message.getStatus().name())
+                .bind("createdAt", message.getCreatedAt())
+                .bind("conversationId", conversationId);
+        insert = message.getTokens() != null
+                ? insert.bind("tokens", message.getTokens())
+                : insert.bindNull("tokens", Integer.class);
+        return insert.fetch().rowsUpdated().then();
+    }
+
+    @Override
+    public Mono<ConversationSummary> findSummary(Long conversationId){
+        return db.sql("SELECT summary, summary_tokens, summarized_until FROM conversations WHERE id = :conversationId")
+                .bind("conversationId", conversationId)
+                .map(row -> {
+                    Integer tokens = row.get("summary_tokens", Integer.class);
+                    return new ConversationSummary(row.get("summary", String.class), tokens != null ? tokens : 0,
+                            row.get("summarized_until", LocalDateTime.class));
+                })
+                .one()
+                .defaultIfEmpty(ConversationSummary.EMPTY);
+    }
+
+    @Override
+    public Mono<Void> saveSummary(Long conversationId, ConversationSummary summary){
+        return db.sql("UPDATE conversations SET summary = :summary, summary_tokens = :summaryTokens, "
+                        + "summarized_until = :summarizedUntil WHERE id = :conversationId")
+                .bind("summary", summary.text())
+                .bind("summaryTokens", summary.tokens())
+                .bind("summarizedUntil", summary.summarizedUntil())
+                .bind("conversationId", conversationId)
+                .fetch().rowsUpdated().then();
+    }
+
+    @Override
+    public Mono<List<Message>> findMessagesBetween(Long conversationId, LocalDateTime after, LocalDateTime before, int maxRows){
+        return db.sql("SELECT id, role, content, tokens, status, created_at FROM messages WHERE conversation_id = :conversationId "
+                        + "AND created_at > :after AND created_at < :before ORDER BY created_at ASC, id ASC LIMIT :maxRows")
+                .bind("conversationId", conversationId)
+                .bind("after", after)
+                .bind("before", before)
+                .bind("maxRows", maxRows)
+                .map(this::toMessage)
+                .all()
+                .collectList();
+    }
+
+    private Message toMessage(Readable row){
+        Message message = new Message(row.get("role", String.class), row.get("content", String.class), null,
+                row.get("tokens", Integer.class));
+        message.setId(row.get("id", Long.class));
+        message.setCreatedAt(row.get("created_at", LocalDateTime.class));
+        //null for rows from before the column, which read as complete like they do through jpa
+        String status = row.get("status", String.class);
+        message.setStatus(status != null ? MessageStatus.valueOf(status) : null);
+        return message;
+    }
+}
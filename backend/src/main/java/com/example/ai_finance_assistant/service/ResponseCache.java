@@ -0,0 +1,106 @@
+package com.example.ai_finance_assistant.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.example.ai_finance_assistant.dto.openai.OpenAIMessage;
+import com.example.ai_finance_assistant.dto.openai.OpenAIRequest;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import reactor.core.publisher.Flux;
+
+//answers to first-turn questions ("what is compound interest?"), so identical requests don't go upstream again.
+//only requests without any assistant message are cached, once there is history the hit rate isn't worth the memory
+@Component
+public class ResponseCache {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final Cache<Key, CachedResponse> responses;
+    private final int replayChunkChars;
+    private final Duration replayChunkDelay;
+
+    public ResponseCache(@Value("${app.response-cache.max-size:1000}") long maxSize,
+                         @Value("${app.response-cache.ttl:6h}") Duration ttl,
+                         @Value("${app.response-cache.replay-chunk-chars:24}") int replayChunkChars,
+                         @Value("${app.response-cache.replay-chunk-delay:15ms}") Duration replayChunkDelay) {
+        this.responses = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        this.replayChunkChars = replayChunkChars;
+        this.replayChunkDelay = replayChunkDelay;
+    }
+
+    public record CachedResponse(String content, int completionTokens) {}
+
+    //what makes two requests the same: model, max_tokens and the normalized messages (system prompt included)
+    record Key(String model, Integer maxTokens, List<OpenAIMessage> messages) {}
+
+    boolean isCacheable(OpenAIRequest request){
+        return request.messages().stream().noneMatch(m -> "assistant".equals(m.role()));
+    }
+
+    CachedResponse get(OpenAIRequest request){
+        return responses.getIfPresent(keyOf(request));
+    }
+
+    void put(OpenAIRequest request, CachedResponse response){
+        responses.put(keyOf(request), response);
+    }
+
+    //case and whitespace don't change the answer, so "What is  compound interest?" and "what is compound interest?" share an entry
+    static Key keyOf(OpenAIRequest request){
+        List<OpenAIMessage> normalized = request.messages().stream()
+                .map(m -> new OpenAIMessage(m.role(), normalize(m.content())))
+                .toList();
+        return new Key(request.model(), request.max_tokens(), normalized);
+    }
+
+    static String normalize(String content){
+        return WHITESPACE.matcher(content.strip()).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+
+    //play a cached answer back in word-aligned chunks with a small gap, so the client sees it arrive like a live stream.
+    //the first chunk goes out right away
+    Flux<String> replay(String content){
+        List<String> chunks = chunk(content, replayChunkChars);
+        if(chunks.size() <= 1){
+            return Flux.fromIterable(chunks);
+        }
+        return Flux.just(chunks.get(0))
+                .concatWith(Flux.fromIterable(chunks.subList(1, chunks.size())).delayElements(replayChunkDelay));
+    }
+
+    //split into pieces of at least chunkChars that end on whitespace, joined back together they are the original text
+    static List<String> chunk(String content, int chunkChars){
+        List<String> chunks = new ArrayList<>(content.length() / chunkChars + 1);
+        int start = 0;
+        while(start < content.length()){
+            int end = Math.min(start + chunkChars, content.length());
+            while(end < content.length() && !Character.isWhitespace(content.charAt(end - 1))){
+                end++;
+            }
+            chunks.add(content.substring(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    public CacheStats stats(){
+        return responses.stats();
+    }
+
+    public long size(){
+        return responses.estimatedSize();
+    }
+}
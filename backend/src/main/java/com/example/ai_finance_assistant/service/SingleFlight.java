@@ -0,0 +1,47 @@
+package com.example.ai_finance_assistant.service;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+import reactor.core.publisher.Flux;
+
+//at most one call per key at a time: callers that ask for the same key while it's running share that call.
+//late joiners get everything emitted so far replayed, and the call is only cancelled once every caller has cancelled
+final class SingleFlight<K, T> {
+
+    private final ConcurrentHashMap<K, Flux<T>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong joined = new AtomicLong();
+
+    Flux<T> execute(K key, Function<K, Flux<T>> call){
+        return Flux.defer(() -> {
+            Flux<T> running = inFlight.get(key);
+            if(running != null){
+                joined.incrementAndGet();
+                return running;
+            }
+            return inFlight.computeIfAbsent(key, k -> share(k, call));
+        });
+    }
+
+    private Flux<T> share(K key, Function<K, Flux<T>> call){
+        //remove(key, value) so a call that finishes late can't drop a newer call for the same key
+        AtomicReference<Flux<T>> self = new AtomicReference<>();
+        Flux<T> shared = call.apply(key)
+                .doFinally(signal -> inFlight.remove(key, self.get()))
+                .replay()
+                .refCount(1);
+        self.set(shared);
+        return shared;
+    }
+
+    int inFlight(){
+        return inFlight.size();
+    }
+
+    //how many callers were served by a call someone else started
+    long joined(){
+        return joined.get();
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.ai_finance_assistant.service;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.reactivestreams.Subscription;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+//merges the streamed answer's deltas (often a single token of a few bytes) into fewer, larger SSE events.
+//the first delta always goes out on its own so time to first token doesn't change, after that deltas are held
+//until max-chars have piled up or max-delay has passed since the oldest one, whichever comes first
+@Component
+public class StreamCoalescer {
+
+    private final boolean enabled;
+    private final Duration maxDelay;
+    private final int maxChars;
+    private final Scheduler scheduler;
+
+    private final DistributionSummary deltasPerResponse;
+    private final DistributionSummary framesPerResponse;
+
+    @Autowired
+    public StreamCoalescer(@Value("${app.stream.coalesce.enabled:true}") boolean enabled,
+                           @Value("${app.stream.coalesce.max-delay:30ms}") Duration maxDelay,
+                           @Value("${app.stream.coalesce.max-chars:256}") int maxChars,
+                           MeterRegistry meterRegistry) {
+        this(enabled, maxDelay, maxChars, Schedulers.parallel(), meterRegistry);
+    }
+
+    StreamCoalescer(boolean enabled, Duration maxDelay, int maxChars, Scheduler scheduler, MeterRegistry meterRegistry) {
+        this.enabled = enabled && !maxDelay.isZero();
+        this.maxDelay = maxDelay;
+        this.maxChars = maxChars;
+        this.scheduler = scheduler;
+        this.deltasPerResponse = DistributionSummary.builder("chat.stream.deltas")
+                .description("Deltas in a streamed answer before coalescing")
+                .register(meterRegistry);
+        this.framesPerResponse = DistributionSummary.builder("chat.stream.frames")
+                .description("Events written for a streamed answer after coalescing")
+                .register(meterRegistry);
+    }
+
+    public Flux<String> coalesce(Flux<String> deltas){
+        if(!enabled){
+            return deltas;
+        }
+        return Flux.create(sink -> deltas.subscribe(new Coalescing(sink)));
+    }
+
+    //one per response. everything that touches the pending text or emits runs under its monitor,
+    //the upstream thread and the flush timer both get here
+    private final class Coalescing extends BaseSubscriber<String> {
+        private final FluxSink<String> sink;
+        private final StringBuilder pending = new StringBuilder();
+        private boolean first = true;
+        private Disposable timer;
+        private int deltas;
+        private int frames;
+
+        Coalescing(FluxSink<String> sink) {
+            this.sink = sink;
+            sink.onDispose(this::dispose);
+        }
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription){
+            requestUnbounded();
+        }
+
+        @Override
+        protected void hookOnNext(String delta){
+            synchronized (this){
+                deltas++;
+                if(first){
+                    first = false;
+                    emit(delta);
+                    return;
+                }
+                pending.append(delta);
+                if(pending.length() >= maxChars){
+                    flush();
+                }else if(timer == null){
+                    timer = scheduler.schedule(this::flushOnTimer, maxDelay.toNanos(), TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+
+        private void flushOnTimer(){
+            synchronized (this){
+                timer = null;
+                flush();
+            }
+        }
+
+        private void flush(){
+            if(timer != null){
+                timer.dispose();
+                timer = null;
+            }
+            if(pending.length() > 0){
+                emit(pending.toString());
+                pending.setLength(0);
+            }
+        }
+
+        private void emit(String text){
+            frames++;
+            sink.next(text);
+        }
+
+        @Override
+        protected void hookOnComplete(){
+            synchronized (this){
+                flush();
+                record();
+            }
+            sink.complete();
+        }
+
+        //whatever already arrived still goes out before the error
+        @Override
+        protected void hookOnError(Throwable error){
+            synchronized (this){
+                flush();
+            }
+            sink.error(error);
+        }
+
+        @Override
+        protected void hookOnCancel(){
+            synchronized (this){
+                if(timer != null){
+                    timer.dispose();
+                    timer = null;
+                }
+            }
+        }
+
+        private void record(){
+            deltasPerResponse.record(deltas);
+            framesPerResponse.record(frames);
+        }
+    }
+}
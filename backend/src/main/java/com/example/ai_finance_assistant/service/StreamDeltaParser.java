@@ -0,0 +1,205 @@
+package com.example.ai_finance_assistant.service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Component;
+
+import com.example.ai_finance_assistant.dto.openai.StreamDelta;
+
+import reactor.core.publisher.Flux;
+import tools.jackson.core.JacksonException;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+import tools.jackson.core.ObjectReadContext;
+import tools.jackson.core.TokenStreamFactory;
+import tools.jackson.databind.ObjectMapper;
+
+//turns the raw SSE bytes of a streamed chat completion into deltas without building a json tree or dto records per chunk.
+//only choices[0].delta.content, choices[0].finish_reason and the usage counts are read, everything else is skipped at the token level
+@Component
+public class StreamDeltaParser {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamDeltaParser.class);
+
+    private static final byte[] DATA_PREFIX = "data:".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DONE = "[DONE]".getBytes(StandardCharsets.US_ASCII);
+
+    //straight from the factory, we never bind values so the mapper's read context isn't needed
+    private final TokenStreamFactory jsonFactory;
+    private final AtomicLong malformedFrames = new AtomicLong();
+
+    public StreamDeltaParser(ObjectMapper objectMapper) {
+        this.jsonFactory = objectMapper.tokenStreamFactory();
+    }
+
+    //decode a response body into deltas, each subscription gets its own line buffer
+    public Flux<StreamDelta> decode(Flux<DataBuffer> body){
+        return Flux.defer(() -> {
+            SseLineReader reader = new SseLineReader();
+            return body.concatMapIterable(buffer -> {
+                try{
+                    return reader.feed(buffer);
+                }finally{
+                    DataBufferUtils.release(buffer);
+                }
+            });
+        });
+    }
+
+    //parse the json payload of one data: line, returns null for frames that are malformed (and counts them)
+    StreamDelta parse(byte[] bytes, int offset, int length){
+        String content = null;
+        String finishReason = null;
+        StreamDelta.Usage usage = null;
+
+        try(JsonParser parser = jsonFactory.createParser(ObjectReadContext.empty(), bytes, offset, length)){
+            if(parser.nextToken() != JsonToken.START_OBJECT){
+                return malformed(bytes, offset, length, "not a json object");
+            }
+            String name;
+            while((name = parser.nextName()) != null){
+                JsonToken value = parser.nextToken();
+                if("usage".equals(name) && value == JsonToken.START_OBJECT){
+                    usage = parseUsage(parser);
+                    continue;
+                }
+                if(!"choices".equals(name) || value != JsonToken.START_ARRAY){
+                    parser.skipChildren();
+                    continue;
+                }
+
+                //only the first choice matters, we always ask for n=1
+                if(parser.nextToken() == JsonToken.START_OBJECT){
+                    String choiceField;
+                    while((choiceField = parser.nextName()) != null){
+                        JsonToken choiceValue = parser.nextToken();
+                        if("delta".equals(choiceField) && choiceValue == JsonToken.START_OBJECT){
+                            String deltaField;
+                            while((deltaField = parser.nextName()) != null){
+                                JsonToken deltaValue = parser.nextToken();
+                                if("content".equals(deltaField) && deltaValue == JsonToken.VALUE_STRING){
+                                    content = parser.getString();
+                                }else{
+                                    parser.skipChildren();
+                                }
+                            }
+                        }else if("finish_reason".equals(choiceField) && choiceValue == JsonToken.VALUE_STRING){
+                            finishReason = parser.getString();
+                        }else{
+                            parser.skipChildren();
+                        }
+                    }
+                }
+                //skip whatever is left of the choices array
+                while(parser.currentToken() != JsonToken.END_ARRAY){
+                    parser.nextToken();
+                    parser.skipChildren();
+                }
+            }
+        }catch(JacksonException e){
+            return malformed(bytes, offset, length, e.getOriginalMessage());
+        }
+        return new StreamDelta(content, finishReason, usage);
+    }
+
+    private StreamDelta.Usage parseUsage(JsonParser parser){
+        int promptTokens = 0;
+        int completionTokens = 0;
+        String field;
+        while((field = parser.nextName()) != null){
+            JsonToken value = parser.nextToken();
+            if("prompt_tokens".equals(field) && value == JsonToken.VALUE_NUMBER_INT){
+                promptTokens = parser.getIntValue();
+            }else if("completion_tokens".equals(field) && value == JsonToken.VALUE_NUMBER_INT){
+                completionTokens = parser.getIntValue();
+            }else{
+                parser.skipChildren();
+            }
+        }
+        return new StreamDelta.Usage(promptTokens, completionTokens);
+    }
+
+    public long getMalformedFrameCount(){
+        return malformedFrames.get();
+    }
+
+    private StreamDelta malformed(byte[] bytes, int offset, int length, String reason){
+        long count = malformedFrames.incrementAndGet();
+        log.warn("Skipping malformed stream frame ({} so far): {} - {}", count, reason,
+                new String(bytes, offset, Math.min(length, 200), StandardCharsets.UTF_8));
+        return null;
+    }
+
+    //splits incoming buffers into lines (they can end anywhere, even mid utf-8 character) and parses the data: lines.
+    //one reusable byte array per stream, so the only per-chunk allocations are the delta and its content string
+    final class SseLineReader {
+        private byte[] pending = new byte[4096];
+        private int length;
+        private int scanFrom;
+
+        List<StreamDelta> feed(DataBuffer buffer){
+            int readable = buffer.readableByteCount();
+            if(length + readable > pending.length){
+                byte[] grown = new byte[Math.max(pending.length * 2, length + readable)];
+                System.arraycopy(pending, 0, grown, 0, length);
+                pending = grown;
+            }
+            buffer.read(pending, length, readable);
+            length += readable;
+
+            List<StreamDelta> deltas = new ArrayList<>(4);
+            int lineStart = 0;
+            for(int i = scanFrom; i < length; i++){
+                if(pending[i] != '\n'){
+                    continue;
+                }
+                int lineEnd = (i > lineStart && pending[i - 1] == '\r') ? i - 1 : i;
+                StreamDelta delta = parseLine(lineStart, lineEnd);
+                if(delta != null){
+                    deltas.add(delta);
+                }
+                lineStart = i + 1;
+            }
+
+            //keep the unfinished line for the next buffer
+            System.arraycopy(pending, lineStart, pending, 0, length - lineStart);
+            length -= lineStart;
+            scanFrom = length;
+            return deltas;
+        }
+
+        private StreamDelta parseLine(int start, int end){
+            if(!startsWith(start, end, DATA_PREFIX)){
+                //blank separators, comments, event:/id: lines
+                return null;
+            }
+            int payload = start + DATA_PREFIX.length;
+            if(payload < end && pending[payload] == ' '){
+                payload++;
+            }
+            if(payload == end || startsWith(payload, end, DONE)){
+                return null;
+            }
+            return parse(pending, payload, end - payload);
+        }
+
+        private boolean startsWith(int start, int end, byte[] prefix){
+            if(end - start < prefix.length){
+                return false;
+            }
+            for(int i = 0; i < prefix.length; i++){
+                if(pending[start + i] != prefix[i]){
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.ai_finance_assistant.service;
+
+//a per-minute budget (requests or tokens) that refills continuously. not thread safe, AdmissionController guards it
+final class TokenBucket {
+
+    private static final double NANOS_PER_MINUTE = 60_000_000_000d;
+
+    private double capacity;
+    private double refillPerNano;
+    private double available;
+    private long lastRefill;
+
+    TokenBucket(long perMinute, long now) {
+        this.capacity = perMinute;
+        this.refillPerNano = perMinute / NANOS_PER_MINUTE;
+        this.available = perMinute;
+        this.lastRefill = now;
+    }
+
+    //0 if the amount can be taken now, otherwise how long until it can.
+    //asks bigger than the whole bucket are treated as a full bucket, they'd never fit otherwise
+    long nanosUntil(long amount, long now){
+        refill(now);
+        double missing = Math.min(amount, capacity) - available;
+        return missing <= 0 ? 0 : (long) Math.ceil(missing / refillPerNano);
+    }
+
+    void take(long amount){
+        available -= Math.min(amount, capacity);
+    }
+
+    //give back what was reserved but not used (the estimate was higher than what the response reported)
+    void refund(long amount){
+        available = Math.min(capacity, available + amount);
+    }
+
+    //the server knows better: adopt its limit, and never think we have more left than it says we do
+    void calibrate(long limitPerMinute, long remaining, long now){
+        refill(now);
+        if(limitPerMinute > 0){
+            capacity = limitPerMinute;
+            refillPerNano = limitPerMinute / NANOS_PER_MINUTE;
+        }
+        if(remaining >= 0){
+            available = Math.min(available, remaining);
+        }
+    }
+
+    double available(long now){
+        refill(now);
+        return available;
+    }
+
+    private void refill(long now){
+        if(now > lastRefill){
+            available = Math.min(capacity, available + (now - lastRefill) * refillPerNano);
+            lastRefill = now;
+        }
+    }
+}
@@ -1,25 +1,119 @@
 package com.example.ai_finance_assistant.service;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 
+import com.example.ai_finance_assistant.dto.openai.OpenAIMessage;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import com.knuddels.jtokkit.Encodings;
 import com.knuddels.jtokkit.api.Encoding;
-import com.knuddels.jtokkit.api.EncodingRegistry;
 import com.knuddels.jtokkit.api.ModelType;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
 @Service
 public class TokenCounterService {
+    private static final Logger log = LoggerFactory.getLogger(TokenCounterService.class);
+
+    //chat format overhead: every message is wrapped as <|start|>role<|message|>content<|end|>,
+    //and the reply is primed with <|start|>assistant<|message|>
+    public static final int TOKENS_PER_MESSAGE = 3;
+    public static final int TOKENS_PER_REPLY = 3;
+
+    //only the one encoding we use (the default registry parses all four vocabularies up front), loaded on its own thread
+    //so the half second it takes overlaps with the rest of startup instead of adding to it, done by the time the app is ready
+    private final CompletableFuture<Encoding> encodingLoad;
+    private volatile Encoding enc;
+
+    //counts of recently seen inputs (people ask "what is compound interest?" a lot), bounded by total characters
+    private final Cache<String, Integer> contentCache;
 
-    private final Encoding enc;
+    //time spent encoding, cached counts don't show up here
+    private final Timer countTimer;
+
+    public TokenCounterService(@Value("${app.token-cache.max-chars:2000000}") long cacheMaxChars, MeterRegistry meterRegistry) {
+        this.encodingLoad = CompletableFuture.supplyAsync(TokenCounterService::loadEncoding, runnable -> {
+            Thread loader = new Thread(runnable, "token-encoding-load");
+            loader.setDaemon(true);
+            loader.start();
+        });
+        this.contentCache = Caffeine.newBuilder()
+                .maximumWeight(cacheMaxChars)
+                .weigher((String content, Integer tokens) -> content.length())
+                .build();
+        this.countTimer = Timer.builder("chat.tokens.count")
+                .description("Time spent counting tokens")
+                .register(meterRegistry);
+    }
+
+    private static Encoding loadEncoding(){
+        long start = System.nanoTime();
+        Encoding encoding = Encodings.newLazyEncodingRegistry().getEncodingForModel(ModelType.GPT_4O_MINI);
+        log.info("Loaded the {} token encoding in {} ms", encoding.getName(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        return encoding;
+    }
 
+    //readiness (ACCEPTING_TRAFFIC comes right after this event) waits for the encoding, so the first requests that count
+    //tokens, often on an event loop or an r2dbc thread, find it loaded instead of blocking on it. it's had all of startup
+    //to load, so this is rarely a wait at all
+    @EventListener(ApplicationReadyEvent.class)
+    public void awaitEncoding(){
+        encoding();
+    }
 
-    public TokenCounterService() {
-        EncodingRegistry registry = Encodings.newDefaultEncodingRegistry();
-        this.enc = registry.getEncodingForModel(ModelType.GPT_4O_MINI);;
+    //a plain field read once the app is ready, only traffic that gets in before readiness can still wait for the load here
+    private Encoding encoding(){
+        Encoding encoding = enc;
+        if(encoding == null){
+            encoding = enc = encodingLoad.join();
+        }
+        return encoding;
     }
 
+    //count-only path, doesn't build the IntArrayList of token ids.
+    //"ordinary" so text that happens to look like a special token (<|endoftext|>) is counted as plain text instead of throwing
     public int countTokens(String message){
 //        IntArrayList encoded = enc.encode(message);  commented out so i know what I did for future reference
-        return enc.encode(message).size();
+        long start = System.nanoTime();
+        int tokens = encoding().countTokensOrdinary(message);
+        countTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return tokens;
+    }
+
+    //same as countTokens but remembers the result for repeated inputs
+    public int countTokensCached(String message){
+        return contentCache.get(message, this::countTokens);
+    }
+
+    //what a message costs inside a chat request (content plus the role/format overhead), used for fixed prompt parts
+    public int countMessageTokens(String content){
+        return countTokens(content) + TOKENS_PER_MESSAGE;
+    }
+
+    //prompt size of a request from parts whose token counts we already know, nothing gets re-encoded here
+    public int estimatePromptTokens(int fixedPromptTokens, int historyTokens, int historyMessages, int userTokens){
+        return fixedPromptTokens
+                + historyTokens + historyMessages * TOKENS_PER_MESSAGE
+                + userTokens + TOKENS_PER_MESSAGE
+                + TOKENS_PER_REPLY;
+    }
+
+    //prompt size of a request when nothing is known about it yet
+    public int estimatePromptTokens(List<OpenAIMessage> messages){
+        int tokens = TOKENS_PER_REPLY;
+        for(OpenAIMessage message: messages){
+            tokens += countTokensCached(message.content()) + TOKENS_PER_MESSAGE;
+        }
+        return tokens;
     }
 }
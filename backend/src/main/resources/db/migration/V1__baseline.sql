@@ -0,0 +1,28 @@
+-- the schema hibernate's ddl-auto=update used to maintain. written to also apply cleanly to a database ddl-auto
+-- already created (flyway baselines those at version 0), so the columns added over time are added if missing
+
+CREATE TABLE IF NOT EXISTS conversations (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    session_id UUID NOT NULL UNIQUE,
+    created_at TIMESTAMP(6) NOT NULL
+);
+
+-- rolling summary of the messages that no longer fit in the context window
+ALTER TABLE conversations ADD COLUMN IF NOT EXISTS summary TEXT;
+ALTER TABLE conversations ADD COLUMN IF NOT EXISTS summary_tokens INTEGER;
+ALTER TABLE conversations ADD COLUMN IF NOT EXISTS summarized_until TIMESTAMP(6);
+
+CREATE TABLE IF NOT EXISTS messages (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    role VARCHAR(255) NOT NULL,
+    content TEXT NOT NULL,
+    created_at TIMESTAMP(6) NOT NULL,
+    conversation_id BIGINT NOT NULL REFERENCES conversations (id)
+);
+
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS tokens INTEGER;
+-- COMPLETE, TRUNCATED or CANCELLED, null on rows from before it existed (read as COMPLETE)
+ALTER TABLE messages ADD COLUMN IF NOT EXISTS status VARCHAR(16);
+
+-- every history, tail and keyset page query walks one conversation in (created_at, id) order
+CREATE INDEX IF NOT EXISTS idx_messages_conversation_created_at ON messages (conversation_id, created_at, id);
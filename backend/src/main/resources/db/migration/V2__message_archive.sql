@@ -0,0 +1,10 @@
+-- cold storage for conversations nobody has touched in a while: all of a conversation's messages in one gzipped row,
+-- moved back into messages the first time the conversation is used again (see MessageArchiver)
+CREATE TABLE message_archive (
+    conversation_id BIGINT PRIMARY KEY REFERENCES conversations (id),
+    message_count INTEGER NOT NULL,
+    raw_bytes INTEGER NOT NULL,
+    payload BYTEA NOT NULL,
+    last_message_at TIMESTAMP(6) NOT NULL,
+    archived_at TIMESTAMP(6) NOT NULL
+);
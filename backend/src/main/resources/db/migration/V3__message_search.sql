@@ -0,0 +1,8 @@
+-- full-text search over message content. a stored generated column keeps the tsvector in step with every insert
+-- (write-behind batches, r2dbc inserts and rehydrated archives alike) without a trigger or a change to the writers,
+-- and the GIN index turns a match into an index lookup instead of a scan of the biggest table.
+-- adding the column rewrites messages once, under a lock, so on a big table run it in a quiet window
+ALTER TABLE messages ADD COLUMN content_tsv tsvector
+    GENERATED ALWAYS AS (to_tsvector('english', content)) STORED;
+
+CREATE INDEX idx_messages_content_tsv ON messages USING GIN (content_tsv);
@@ -0,0 +1,29 @@
+package com.example.ai_finance_assistant.dto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.LocalDateTime;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.ai_finance_assistant.exception.InvalidRequestException;
+
+class HistoryCursorTest {
+
+	@Test
+	void roundTripsThroughAnUrlSafeString() {
+		HistoryCursor cursor = new HistoryCursor(LocalDateTime.of(2026, 3, 1, 9, 30, 15, 123456000), 4821L);
+
+		String encoded = cursor.encode();
+
+		assertThat(encoded).matches("[A-Za-z0-9_-]+");
+		assertThat(HistoryCursor.decode(encoded)).isEqualTo(cursor);
+	}
+
+	@Test
+	void rejectsCursorsItDidNotIssue() {
+		assertThatThrownBy(() -> HistoryCursor.decode("not a cursor")).isInstanceOf(InvalidRequestException.class);
+		assertThatThrownBy(() -> HistoryCursor.decode("bm9zZXBhcmF0b3I")).isInstanceOf(InvalidRequestException.class);
+	}
+}
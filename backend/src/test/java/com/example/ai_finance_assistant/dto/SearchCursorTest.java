@@ -0,0 +1,35 @@
+package com.example.ai_finance_assistant.dto;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.ai_finance_assistant.exception.InvalidRequestException;
+
+class SearchCursorTest {
+
+	@Test
+	void roundTripsTheStartOfTheResults() {
+		String encoded = SearchCursor.START.encode();
+
+		assertThat(encoded).matches("[A-Za-z0-9_-]+");
+		assertThat(SearchCursor.decode(encoded)).isEqualTo(SearchCursor.START);
+	}
+
+	@Test
+	void roundTripsRanksWithNoExactDecimalForm() {
+		//ranks come back from postgres as float4, the cursor has to give back exactly the same float to page after it
+		for (float rank : new float[] { 0.1f, 1f / 3, 0.0333333f, Float.MIN_VALUE, 2.7182817f }) {
+			SearchCursor cursor = new SearchCursor(rank, 4821L);
+
+			assertThat(SearchCursor.decode(cursor.encode())).isEqualTo(cursor);
+		}
+	}
+
+	@Test
+	void rejectsCursorsItDidNotIssue() {
+		assertThatThrownBy(() -> SearchCursor.decode("not a cursor")).isInstanceOf(InvalidRequestException.class);
+		assertThatThrownBy(() -> SearchCursor.decode("bm9zZXBhcmF0b3I")).isInstanceOf(InvalidRequestException.class);
+	}
+}
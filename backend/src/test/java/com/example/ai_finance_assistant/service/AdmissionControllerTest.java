@@ -0,0 +1,109 @@
+package com.example.ai_finance_assistant.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+
+import com.example.ai_finance_assistant.exception.RateLimitException;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+class AdmissionControllerTest {
+
+	private static AdmissionController controller(long requestsPerMinute, long tokensPerMinute, int maxQueued,
+			int concurrency) {
+		return new AdmissionController(requestsPerMinute, tokensPerMinute, maxQueued, Duration.ofMillis(200),
+				concurrency, 1, 64);
+	}
+
+	@Test
+	void rejectsRightAwayWhenTheBudgetCannotRefillBeforeTheDeadline() {
+		AdmissionController admission = controller(1, 100_000, 10, 8);
+
+		assertThat(admission.acquire(100).block()).isNotNull();
+		//one request per minute, the next one is a minute away
+		assertThatThrownBy(() -> admission.acquire(100).block(Duration.ofMillis(100)))
+				.isInstanceOf(RateLimitException.class);
+		assertThat(admission.getRejectedCount()).isEqualTo(1);
+	}
+
+	@Test
+	void waitsForAConcurrencySlotAndGetsItOnRelease() {
+		AdmissionController admission = controller(1000, 100_000, 10, 1);
+		AdmissionController.Permit first = admission.acquire(100).block();
+
+		Mono<AdmissionController.Permit> second = admission.acquire(100).cache();
+		second.subscribe();
+		assertThat(admission.getQueued()).isEqualTo(1);
+
+		first.complete(50);
+		assertThat(second.block(Duration.ofSeconds(1))).isNotNull();
+		assertThat(admission.getActive()).isEqualTo(1);
+	}
+
+	@Test
+	void turnsCallersAwayWhenTheQueueIsFull() {
+		AdmissionController admission = controller(1000, 100_000, 1, 1);
+		admission.acquire(100).block();
+		admission.acquire(100).subscribe(permit -> {}, error -> {});
+
+		assertThatThrownBy(() -> admission.acquire(100).block(Duration.ofMillis(100)))
+				.isInstanceOf(RateLimitException.class);
+	}
+
+	@Test
+	void halvesConcurrencyWhenThrottledAndGrowsItBackSlowly() {
+		AdmissionController admission = controller(1000, 1_000_000, 10, 16);
+
+		admission.acquire(10).block().fail(new RateLimitException("429"));
+		assertThat(admission.getConcurrencyLimit()).isEqualTo(8);
+
+		//about +1/8 per call, so it takes a little over 8 calls to get back to 9
+		for (int i = 0; i < 9; i++) {
+			admission.acquire(10).block().complete(10);
+		}
+		assertThat(admission.getConcurrencyLimit()).isEqualTo(9);
+	}
+
+	@Test
+	void adoptsTheRemainingBudgetFromResponseHeaders() {
+		AdmissionController admission = controller(1000, 1_000_000, 10, 8);
+		HttpHeaders headers = new HttpHeaders();
+		headers.add("x-ratelimit-limit-tokens", "1000000");
+		headers.add("x-ratelimit-remaining-tokens", "50");
+		admission.calibrate(headers);
+
+		assertThatThrownBy(() -> admission.acquire(5000).block(Duration.ofMillis(100)))
+				.isInstanceOf(RateLimitException.class);
+	}
+
+	@Test
+	void aCallerCancelledWhileItIsBeingGrantedDoesNotKeepItsSlot() {
+		AdmissionController admission = controller(1000, 100_000, 10, 1);
+		AdmissionController.Permit first = admission.acquire(100).block();
+
+		//the second caller's permit cancels the third caller (a hedge or coalesced call losing), both are granted
+		//by the same release, so the third is already counted active when it's cancelled
+		AtomicReference<Disposable> third = new AtomicReference<>();
+		AtomicReference<AdmissionController.Permit> second = new AtomicReference<>();
+		admission.acquire(100).subscribe(permit -> {
+			second.set(permit);
+			third.get().dispose();
+		});
+		third.set(admission.acquire(100).subscribe(permit -> permit.complete(100)));
+		assertThat(admission.getQueued()).isEqualTo(2);
+
+		//a clean call raises the limit from 1 to 2
+		first.complete(50);
+		assertThat(second.get()).isNotNull();
+		second.get().complete(50);
+
+		assertThat(admission.getActive()).isZero();
+	}
+}
@@ -0,0 +1,68 @@
+package com.example.ai_finance_assistant.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.ai_finance_assistant.entity.Message;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+class ChatMetricsTest {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+	private final ChatMetrics metrics = new ChatMetrics(registry);
+
+	@Test
+	void timesTheFirstTokenOnceAndTheTurnByOutcome() {
+		metrics.timeTurn(turn -> Flux.just("Compound", " interest").doOnComplete(() -> turn.completionTokens(2))).blockLast();
+		metrics.timeTurn(turn -> Flux.just("a", "b", "c")).take(1).blockLast();
+
+		assertThat(registry.get("chat.response.first_token").tag("source", "upstream").timer().count()).isEqualTo(2);
+		assertThat(registry.get("chat.response.duration").tag("outcome", "completed").timer().count()).isEqualTo(1);
+		assertThat(registry.get("chat.response.duration").tag("outcome", "cancelled").timer().count()).isEqualTo(1);
+		assertThat(registry.get("chat.response.tokens_per_second").summary().count()).isEqualTo(1);
+	}
+
+	@Test
+	void tagsCachedAnswersAndFailedTurns() {
+		metrics.timeTurn(turn -> {
+			turn.source(ChatMetrics.SOURCE_CACHE);
+			return Flux.just("cached");
+		}).blockLast();
+		metrics.timeTurn(turn -> Flux.<String>error(new IllegalStateException("upstream down")))
+				.onErrorResume(e -> Flux.empty()).blockLast();
+
+		assertThat(registry.get("chat.response.duration").tags("source", "cache", "outcome", "completed").timer().count()).isEqualTo(1);
+		assertThat(registry.get("chat.response.duration").tags("outcome", "error", "exception", "IllegalStateException").timer().count())
+				.isEqualTo(1);
+		assertThat(registry.find("chat.response.first_token").tag("source", "upstream").timer()).isNull();
+	}
+
+	@Test
+	void countsPersistenceCallsAndEvictions() {
+		metrics.timePersistence("save_message", Mono.empty()).block();
+		metrics.timePersistence("load_tail", Mono.error(new IllegalStateException())).onErrorResume(e -> Mono.empty()).block();
+		metrics.recordEvicted(List.of(new Message("user", "a", null, 4), new Message("assistant", "b", null, 6)));
+		metrics.recordEvicted(List.of());
+
+		assertThat(registry.get("chat.persistence").tags("operation", "save_message", "outcome", "success").timer().count()).isEqualTo(1);
+		assertThat(registry.get("chat.persistence").tags("operation", "load_tail", "outcome", "error").timer().count()).isEqualTo(1);
+		assertThat(registry.get("chat.context.truncations").counter().count()).isEqualTo(1);
+		assertThat(registry.get("chat.context.evicted.messages").counter().count()).isEqualTo(2);
+		assertThat(registry.get("chat.context.evicted.tokens").counter().count()).isEqualTo(10);
+	}
+
+	@Test
+	void splitsAbandonedTokensByKind() {
+		metrics.recordAbandoned(420, 37);
+
+		assertThat(registry.get("chat.response.abandoned").counter().count()).isEqualTo(1);
+		assertThat(registry.get("chat.response.abandoned.tokens").tag("kind", "prompt").counter().count()).isEqualTo(420);
+		assertThat(registry.get("chat.response.abandoned.tokens").tag("kind", "completion").counter().count()).isEqualTo(37);
+	}
+}
@@ -0,0 +1,61 @@
+package com.example.ai_finance_assistant.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.ai_finance_assistant.entity.Message;
+
+import reactor.core.publisher.Mono;
+
+class ContextWindowTest {
+
+	private static Message message(String content, int tokens) {
+		return new Message("user", content, null, tokens);
+	}
+
+	@Test
+	void keepsNewestMessagesWithinBudget() {
+		ContextWindow window = new ContextWindow(10, List.of(message("a", 4), message("b", 4), message("c", 4)));
+
+		assertThat(window.snapshot()).extracting(Message::getContent).containsExactly("b", "c");
+		assertThat(window.getTotalTokens()).isEqualTo(8);
+	}
+
+	@Test
+	void appendDropsOldestUntilBackUnderBudget() {
+		ContextWindow window = new ContextWindow(10, List.of(message("a", 3), message("b", 3)));
+
+		List<Message> evicted = window.append(message("c", 8));
+
+		assertThat(evicted).extracting(Message::getContent).containsExactly("a", "b");
+		assertThat(window.snapshot()).extracting(Message::getContent).containsExactly("c");
+		assertThat(window.getTotalTokens()).isEqualTo(8);
+	}
+
+	@Test
+	void alwaysKeepsTheNewestMessageEvenIfOverBudget() {
+		ContextWindow window = new ContextWindow(10, List.of(message("a", 2)));
+
+		window.append(message("huge", 25));
+
+		assertThat(window.snapshot()).extracting(Message::getContent).containsExactly("huge");
+		assertThat(window.getTotalTokens()).isEqualTo(25);
+	}
+
+	@Test
+	void cacheCountsHitsAndMissesAndAppendsInPlace() {
+		ContextWindowCache cache = new ContextWindowCache(100, Duration.ofMinutes(5));
+
+		cache.getWindow(1L, id -> Mono.just(new ContextWindow(10, List.of(message("a", 2))))).block();
+		cache.append(1L, message("b", 3));
+		List<Message> window = cache.getWindow(1L, id -> { throw new AssertionError("should be cached"); }).block();
+
+		assertThat(window).extracting(Message::getContent).containsExactly("a", "b");
+		assertThat(cache.stats().missCount()).isEqualTo(1);
+		assertThat(cache.stats().hitCount()).isEqualTo(1);
+	}
+}
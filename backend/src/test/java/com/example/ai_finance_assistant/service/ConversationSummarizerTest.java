@@ -0,0 +1,161 @@
+package com.example.ai_finance_assistant.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import com.example.ai_finance_assistant.dto.ConversationSummary;
+import com.example.ai_finance_assistant.dto.openai.OpenAIRequest;
+import com.example.ai_finance_assistant.dto.openai.StreamDelta;
+import com.example.ai_finance_assistant.entity.Message;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+class ConversationSummarizerTest {
+
+	private final OpenAIClient openAIClient = mock(OpenAIClient.class);
+	private final InMemoryStore store = new InMemoryStore();
+	private final ConversationSummarizer summarizer = new ConversationSummarizer(store, openAIClient,
+			new TokenCounterService(1000, new SimpleMeterRegistry()), true, 100, 300, 200, "gpt-4o-mini", Duration.ofMillis(200),
+			Duration.ofSeconds(1), 100, Duration.ofMinutes(5));
+
+	private static Message message(String role, String content, int tokens, int minute) {
+		Message message = new Message(role, content, null, tokens);
+		message.setCreatedAt(LocalDateTime.of(2026, 1, 1, 12, minute));
+		return message;
+	}
+
+	@Test
+	void waitsUntilEnoughTokensHaveBeenEvicted() {
+		summarizer.onEvicted(1L, List.of(message("user", "what is an index fund?", 60, 0)));
+
+		verify(openAIClient, never()).streamChatCompletion(any());
+		assertThat(store.summaries).isEmpty();
+	}
+
+	@Test
+	void foldsTheEvictedMessagesIntoThePreviousSummary() {
+		store.summaries.put(1L, new ConversationSummary("User is 30 and saving for a house.", 9, LocalDateTime.of(2026, 1, 1, 11, 0)));
+		when(openAIClient.streamChatCompletion(any())).thenReturn(Flux.just(
+				new StreamDelta("User is 30, saving for a house,", null),
+				new StreamDelta(" and now learning about index funds.", "stop")));
+
+		summarizer.onEvicted(1L, List.of(message("user", "what is an index fund?", 60, 0)));
+		summarizer.onEvicted(1L, List.of(message("assistant", "An **index fund** tracks a market index.", 60, 1)));
+
+		ArgumentCaptor<OpenAIRequest> request = ArgumentCaptor.forClass(OpenAIRequest.class);
+		verify(openAIClient).streamChatCompletion(request.capture());
+		String prompt = request.getValue().messages().get(1).content();
+		assertThat(prompt).contains("User is 30 and saving for a house.")
+				.contains("user: what is an index fund?")
+				.contains("assistant: An **index fund** tracks a market index.");
+
+		ConversationSummary saved = store.summaries.get(1L);
+		assertThat(saved.text()).isEqualTo("User is 30, saving for a house, and now learning about index funds.");
+		assertThat(saved.summarizedUntil()).isEqualTo(LocalDateTime.of(2026, 1, 1, 12, 1));
+		assertThat(summarizer.getSummary(1L).block()).isEqualTo(saved);
+	}
+
+	@Test
+	void keepsTheBatchForTheNextAttemptWhenSummarizingFails() {
+		when(openAIClient.streamChatCompletion(any()))
+				.thenReturn(Flux.error(new IllegalStateException("upstream down")))
+				.thenReturn(Flux.just(new StreamDelta("Asked about bonds and stocks.", "stop")));
+
+		summarizer.onEvicted(1L, List.of(message("user", "bonds?", 120, 0)));
+		assertThat(summarizer.getFailureCount()).isEqualTo(1);
+		assertThat(store.summaries).isEmpty();
+
+		summarizer.onEvicted(1L, List.of(message("user", "stocks?", 120, 1)));
+
+		ArgumentCaptor<OpenAIRequest> request = ArgumentCaptor.forClass(OpenAIRequest.class);
+		verify(openAIClient, times(2)).streamChatCompletion(request.capture());
+		assertThat(request.getValue().messages().get(1).content()).contains("user: bonds?").contains("user: stocks?");
+		assertThat(store.summaries.get(1L).summarizedUntil()).isEqualTo(LocalDateTime.of(2026, 1, 1, 12, 1));
+	}
+
+	@Test
+	void retriesAFailedSummaryWithoutWaitingForMoreEvictions() throws InterruptedException {
+		when(openAIClient.streamChatCompletion(any()))
+				.thenReturn(Flux.error(new IllegalStateException("upstream down")))
+				.thenReturn(Flux.error(new IllegalStateException("still down")))
+				.thenReturn(Flux.just(new StreamDelta("Asked about bonds.", "stop")));
+
+		summarizer.onEvicted(1L, List.of(message("user", "bonds?", 120, 0)));
+
+		//200 ms, then 400 ms later
+		verify(openAIClient, timeout(3000).times(3)).streamChatCompletion(any());
+		for (int i = 0; i < 100 && summarizer.getSummarizationCount() == 0; i++) {
+			Thread.sleep(10);
+		}
+		assertThat(summarizer.getFailureCount()).isEqualTo(2);
+		assertThat(summarizer.getSummary(1L).block().text()).isEqualTo("Asked about bonds.");
+	}
+
+	@Test
+	void treatsABlankSummaryAsAFailureAndRetries() throws InterruptedException {
+		when(openAIClient.streamChatCompletion(any()))
+				.thenReturn(Flux.just(new StreamDelta("  ", null), new StreamDelta("\n", "stop")))
+				.thenReturn(Flux.just(new StreamDelta("Asked about bonds.", "stop")));
+
+		summarizer.onEvicted(1L, List.of(message("user", "bonds?", 120, 0)));
+		assertThat(summarizer.getFailureCount()).isEqualTo(1);
+
+		verify(openAIClient, timeout(3000).times(2)).streamChatCompletion(any());
+		for (int i = 0; i < 100 && summarizer.getSummarizationCount() == 0; i++) {
+			Thread.sleep(10);
+		}
+		assertThat(store.summaries.get(1L).text()).isEqualTo("Asked about bonds.");
+	}
+
+	//only what the summarizer touches
+	private static final class InMemoryStore implements ConversationStore {
+		private final ConcurrentHashMap<Long, ConversationSummary> summaries = new ConcurrentHashMap<>();
+
+		@Override
+		public Mono<Long> findOrCreateConversationId(UUID sessionId) {
+			return Mono.just(1L);
+		}
+
+		@Override
+		public Mono<List<Message>> findTokenBudgetedTail(Long conversationId, int maxTokens, int maxRows) {
+			return Mono.just(List.of());
+		}
+
+		@Override
+		public Mono<Void> saveMessage(Long conversationId, Message message) {
+			return Mono.empty();
+		}
+
+		@Override
+		public Mono<ConversationSummary> findSummary(Long conversationId) {
+			return Mono.just(summaries.getOrDefault(conversationId, ConversationSummary.EMPTY));
+		}
+
+		@Override
+		public Mono<Void> saveSummary(Long conversationId, ConversationSummary summary) {
+			return Mono.fromRunnable(() -> summaries.put(conversationId, summary));
+		}
+
+		@Override
+		public Mono<List<Message>> findMessagesBetween(Long conversationId, LocalDateTime after, LocalDateTime before, int maxRows) {
+			return Mono.just(List.of());
+		}
+	}
+}
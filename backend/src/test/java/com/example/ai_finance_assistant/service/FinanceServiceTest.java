@@ -0,0 +1,129 @@
+package com.example.ai_finance_assistant.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.ai_finance_assistant.dto.BatchAnswer;
+import com.example.ai_finance_assistant.dto.BatchRequest;
+import com.example.ai_finance_assistant.dto.ConversationSummary;
+import com.example.ai_finance_assistant.dto.openai.OpenAIMessage;
+import com.example.ai_finance_assistant.dto.openai.OpenAIRequest;
+import com.example.ai_finance_assistant.dto.openai.StreamDelta;
+import com.example.ai_finance_assistant.entity.Message;
+import com.example.ai_finance_assistant.exception.ServiceUnavailableException;
+import com.example.ai_finance_assistant.repository.ConversationRepository;
+import com.example.ai_finance_assistant.repository.MessageRepository;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+class FinanceServiceTest {
+
+	private static final String SESSION_A = "46d4928c-5113-438e-b916-d01aeaf99293";
+	private static final String SESSION_B = "9b2f6a53-0c1e-4d7a-8f4b-2a6c1e3d5f70";
+
+	private final OpenAIClient openAIClient = mock(OpenAIClient.class);
+	private final ConversationStore conversationStore = mock(ConversationStore.class);
+	//conversation id and "role: content" of every message handed to the store, in the order they were saved
+	private final List<String> saved = new CopyOnWriteArrayList<>();
+	private final FinanceService financeService;
+
+	FinanceServiceTest() {
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		ConversationSummarizer summarizer = mock(ConversationSummarizer.class);
+		when(summarizer.getSummary(anyLong())).thenReturn(Mono.just(ConversationSummary.EMPTY));
+		MessageArchiver messageArchiver = mock(MessageArchiver.class);
+		when(messageArchiver.rehydrateAsync(anyLong())).thenReturn(Mono.empty());
+
+		when(conversationStore.findOrCreateConversationId(any(UUID.class)))
+				.thenAnswer(invocation -> Mono.just(invocation.getArgument(0).toString().equals(SESSION_A) ? 1L : 2L));
+		when(conversationStore.findTokenBudgetedTail(anyLong(), anyInt(), anyInt())).thenReturn(Mono.just(List.of()));
+		when(conversationStore.saveMessage(anyLong(), any(Message.class))).thenAnswer(invocation -> {
+			Message message = invocation.getArgument(1);
+			saved.add(invocation.getArgument(0) + " " + message.getRole() + ": " + message.getContent());
+			return Mono.empty();
+		});
+
+		//the answer names the question and how many messages the prompt had, "fail" fails and "hang" never finishes
+		when(openAIClient.streamChatCompletion(any(OpenAIRequest.class), anyInt())).thenAnswer(invocation -> {
+			List<OpenAIMessage> messages = ((OpenAIRequest) invocation.getArgument(0)).messages();
+			String question = messages.get(messages.size() - 1).content();
+			if (question.equals("fail")) {
+				return Flux.error(new ServiceUnavailableException("OpenAI service unavailable: 503"));
+			}
+			if (question.equals("hang")) {
+				return Flux.never();
+			}
+			return Flux.just(new StreamDelta(question + " (" + messages.size() + ")", null), new StreamDelta(null, "stop"));
+		});
+
+		financeService = new FinanceService(openAIClient, mock(ConversationRepository.class), mock(MessageRepository.class),
+				new TokenCounterService(1000, meterRegistry), new ContextWindowCache(100, Duration.ofMinutes(30)),
+				conversationStore, mock(ResponseCache.class), summarizer, new ChatMetrics(meterRegistry),
+				messageArchiver, new ConversationIdCache(100), 800, 500, 8);
+	}
+
+	@Test
+	void answersASessionsQuestionsInOrderEachSeeingTheTurnsBeforeIt() {
+		List<BatchAnswer> answers = financeService.answerBatch(List.of(
+						new BatchRequest.Question("what is a bond?", SESSION_A),
+						new BatchRequest.Question("what is a stock?", SESSION_B),
+						new BatchRequest.Question("and its yield?", SESSION_A),
+						new BatchRequest.Question("what is an etf?", null)))
+				.collectList().block();
+
+		assertThat(answers).extracting(BatchAnswer::index).containsExactlyInAnyOrder(0, 1, 2, 3);
+		assertThat(answers).filteredOn(answer -> SESSION_A.equals(answer.sessionID()))
+				.extracting(BatchAnswer::answer)
+				//system prompt and question, then the first turn on top
+				.containsExactly("what is a bond? (2)", "and its yield? (4)");
+		assertThat(answers).filteredOn(answer -> answer.index() == 3)
+				.extracting(BatchAnswer::answer).containsExactly("what is an etf? (2)");
+
+		//the standalone question isn't saved
+		assertThat(saved).filteredOn(message -> message.startsWith("1 ")).containsExactly(
+				"1 user: what is a bond?", "1 assistant: what is a bond? (2)",
+				"1 user: and its yield?", "1 assistant: and its yield? (4)");
+		assertThat(saved).filteredOn(message -> message.startsWith("2 ")).containsExactly(
+				"2 user: what is a stock?", "2 assistant: what is a stock? (2)");
+		assertThat(saved).hasSize(6);
+	}
+
+	@Test
+	void aFailedQuestionDoesNotStopItsSession() {
+		List<BatchAnswer> answers = financeService.answerBatch(List.of(
+						new BatchRequest.Question("fail", SESSION_A),
+						new BatchRequest.Question("what is a bond?", SESSION_A)))
+				.collectList().block();
+
+		assertThat(answers).hasSize(2);
+		assertThat(answers.get(0).index()).isZero();
+		assertThat(answers.get(0).error()).contains("503");
+		assertThat(answers.get(1).answer()).isEqualTo("what is a bond? (2)");
+		//only the answered turn is saved, and the next question didn't see the failed one
+		assertThat(saved).containsExactly("1 user: what is a bond?", "1 assistant: what is a bond? (2)");
+	}
+
+	@Test
+	void savesEveryAnsweredTurnBeforeTheBatchIsCutOff() {
+		BatchAnswer first = financeService.answerBatch(List.of(
+						new BatchRequest.Question("what is a bond?", SESSION_A),
+						new BatchRequest.Question("hang", SESSION_A)))
+				.next().block(Duration.ofSeconds(5));
+
+		assertThat(first.answer()).isEqualTo("what is a bond? (2)");
+		assertThat(saved).containsExactly("1 user: what is a bond?", "1 assistant: what is a bond? (2)");
+	}
+}
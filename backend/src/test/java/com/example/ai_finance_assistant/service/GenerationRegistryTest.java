@@ -0,0 +1,110 @@
+package com.example.ai_finance_assistant.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.codec.ServerSentEvent;
+
+import com.example.ai_finance_assistant.exception.GenerationGoneException;
+import com.example.ai_finance_assistant.exception.InvalidRequestException;
+
+import reactor.core.publisher.Flux;
+
+class GenerationRegistryTest {
+
+	private static final String SESSION = "6f1c2a1e-0000-4000-8000-000000000001";
+
+	@Test
+	void numbersEveryChunkWithTheGenerationId() {
+		GenerationRegistry registry = new GenerationRegistry(100, Duration.ofMinutes(1), Duration.ofMinutes(1));
+
+		List<ServerSentEvent<String>> events = registry.start(SESSION, Flux.just("a", "b", "c")).collectList().block();
+
+		assertThat(events).extracting(ServerSentEvent::data).containsExactly("a", "b", "c");
+		String generation = events.get(0).id().substring(0, events.get(0).id().lastIndexOf(':'));
+		assertThat(events).extracting(ServerSentEvent::id).containsExactly(generation + ":0", generation + ":1", generation + ":2");
+	}
+
+	@Test
+	void keepsGeneratingAfterTheClientLeavesAndResumesAfterTheLastSeenChunk() {
+		GenerationRegistry registry = new GenerationRegistry(100, Duration.ofMinutes(1), Duration.ofMinutes(1));
+		AtomicInteger upstreamCalls = new AtomicInteger();
+		Flux<String> answer = Flux.defer(() -> {
+			upstreamCalls.incrementAndGet();
+			return Flux.just("Compound", " interest", " is", " interest", " on", " interest.").delayElements(Duration.ofMillis(20));
+		});
+
+		//the connection drops after two chunks
+		List<ServerSentEvent<String>> seen = registry.start(SESSION, answer).take(2).collectList().block();
+		List<ServerSentEvent<String>> rest = registry.resume(SESSION, seen.get(1).id()).collectList().block();
+
+		assertThat(rest).extracting(ServerSentEvent::data).containsExactly(" is", " interest", " on", " interest.");
+		assertThat(upstreamCalls).hasValue(1);
+		assertThat(registry.getResumedCount()).isEqualTo(1);
+	}
+
+	@Test
+	void refusesResumesItCannotServe() {
+		GenerationRegistry registry = new GenerationRegistry(2, Duration.ofMinutes(1), Duration.ofMinutes(1));
+		List<ServerSentEvent<String>> events = registry.start(SESSION, Flux.just("a", "b", "c", "d", "e")).collectList().block();
+		String firstId = events.get(0).id();
+
+		//only the newest two chunks are still buffered
+		assertThatThrownBy(() -> registry.resume(SESSION, firstId)).isInstanceOf(GenerationGoneException.class);
+		assertThat(registry.resume(SESSION, events.get(2).id()).collectList().block())
+				.extracting(ServerSentEvent::data).containsExactly("d", "e");
+
+		assertThatThrownBy(() -> registry.resume("6f1c2a1e-0000-4000-8000-000000000002", firstId))
+				.isInstanceOf(GenerationGoneException.class);
+		assertThatThrownBy(() -> registry.resume(SESSION, "not-an-id")).isInstanceOf(InvalidRequestException.class);
+	}
+
+	@Test
+	void forgetsAGenerationOnceTheGracePeriodIsOver() throws InterruptedException {
+		GenerationRegistry registry = new GenerationRegistry(100, Duration.ofMillis(50), Duration.ofMinutes(1));
+
+		registry.start(SESSION, Flux.just("a")).blockLast();
+		assertThat(registry.size()).isEqualTo(1);
+
+		Thread.sleep(300);
+		assertThat(registry.size()).isZero();
+	}
+
+	@Test
+	void cancelsTheUpstreamCallWhenNobodyComesBack() throws InterruptedException {
+		GenerationRegistry registry = new GenerationRegistry(100, Duration.ofMinutes(1), Duration.ofMillis(50));
+		AtomicBoolean cancelled = new AtomicBoolean();
+		Flux<String> answer = Flux.interval(Duration.ofMillis(10)).map(String::valueOf).doOnCancel(() -> cancelled.set(true));
+
+		List<ServerSentEvent<String>> seen = registry.start(SESSION, answer).take(2).collectList().block();
+		assertThat(cancelled).isFalse();
+
+		Thread.sleep(300);
+		assertThat(cancelled).isTrue();
+		assertThat(registry.getAbandonedCount()).isEqualTo(1);
+		assertThatThrownBy(() -> registry.resume(SESSION, seen.get(1).id())).isInstanceOf(GenerationGoneException.class);
+	}
+
+	@Test
+	void aReconnectWithinTheDisconnectGraceKeepsItRunning() throws InterruptedException {
+		GenerationRegistry registry = new GenerationRegistry(100, Duration.ofMinutes(1), Duration.ofMillis(200));
+		AtomicBoolean cancelled = new AtomicBoolean();
+		Flux<String> answer = Flux.range(0, 20).map(String::valueOf).delayElements(Duration.ofMillis(20))
+				.doOnCancel(() -> cancelled.set(true));
+
+		List<ServerSentEvent<String>> seen = registry.start(SESSION, answer).take(2).collectList().block();
+		Thread.sleep(50);
+		List<ServerSentEvent<String>> rest = registry.resume(SESSION, seen.get(1).id()).collectList().block();
+
+		assertThat(rest).hasSize(18);
+		Thread.sleep(300);
+		assertThat(cancelled).isFalse();
+		assertThat(registry.getAbandonedCount()).isZero();
+	}
+}
@@ -0,0 +1,49 @@
+package com.example.ai_finance_assistant.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+class HedgingPolicyTest {
+
+	private static HedgingPolicy policy(Duration fixedDelay, double budgetRatio) {
+		return new HedgingPolicy(true, fixedDelay, 0.95, Duration.ofSeconds(3), Duration.ofMillis(100), 100, 20,
+				budgetRatio, 2, "");
+	}
+
+	@Test
+	void learnsTheThresholdFromRecentFirstDeltas() {
+		HedgingPolicy hedging = policy(null, 0.05);
+		assertThat(hedging.delay()).isEqualTo(Duration.ofSeconds(3));
+
+		//95 fast first deltas and 5 slow ones, the 95th percentile is the slowest of the fast ones
+		for (int i = 1; i <= 95; i++) {
+			hedging.recordFirstDelta(Duration.ofMillis(200 + i).toNanos());
+		}
+		for (int i = 0; i < 5; i++) {
+			hedging.recordFirstDelta(Duration.ofSeconds(8).toNanos());
+		}
+
+		assertThat(hedging.delay()).isEqualTo(Duration.ofMillis(295));
+	}
+
+	@Test
+	void hedgesNoMoreThanTheBudgetAllows() {
+		HedgingPolicy hedging = policy(Duration.ofMillis(500), 0.1);
+
+		int hedges = 0;
+		for (int i = 0; i < 100; i++) {
+			hedging.onCall();
+			if (hedging.tryHedge()) {
+				hedges++;
+			}
+		}
+
+		//one hedge per ten calls, however many of them were slow
+		assertThat(hedges).isEqualTo(10);
+		assertThat(hedging.getDeniedCount()).isEqualTo(90);
+		assertThat(hedging.delay()).isEqualTo(Duration.ofMillis(500));
+	}
+}
@@ -0,0 +1,51 @@
+package com.example.ai_finance_assistant.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.ai_finance_assistant.entity.MessageStatus;
+import com.example.ai_finance_assistant.service.MessageArchiveCodec.ArchivedMessage;
+
+import tools.jackson.databind.json.JsonMapper;
+
+class MessageArchiveCodecTest {
+
+	private final MessageArchiveCodec codec = new MessageArchiveCodec(JsonMapper.builder().build());
+
+	@Test
+	void roundTripsEveryField() {
+		List<ArchivedMessage> messages = List.of(
+				new ArchivedMessage("user", "What is a Roth IRA? é \"quoted\"\n", 9, MessageStatus.COMPLETE,
+						LocalDateTime.of(2026, 1, 1, 12, 0, 0, 123456000)),
+				new ArchivedMessage("assistant", "A **Roth IRA** is", null, MessageStatus.CANCELLED,
+						LocalDateTime.of(2026, 1, 1, 12, 0, 5)),
+				new ArchivedMessage("assistant", "legacy row", 2, null, LocalDateTime.of(2026, 1, 1, 12, 1)));
+
+		MessageArchiveCodec.Encoded encoded = codec.encode(messages);
+
+		assertThat(codec.decode(encoded.payload())).isEqualTo(messages);
+	}
+
+	@Test
+	void storesAConversationInAFractionOfItsTextSize() {
+		List<ArchivedMessage> messages = new ArrayList<>();
+		int textBytes = 0;
+		for (int i = 0; i < 50; i++) {
+			String content = "Compound interest is interest calculated on the principal and on the interest already earned, turn " + i;
+			textBytes += content.getBytes(StandardCharsets.UTF_8).length;
+			messages.add(new ArchivedMessage(i % 2 == 0 ? "user" : "assistant", content, 20, MessageStatus.COMPLETE,
+					LocalDateTime.of(2026, 1, 1, 12, 0).plusSeconds(i)));
+		}
+
+		MessageArchiveCodec.Encoded encoded = codec.encode(messages);
+
+		assertThat(encoded.rawBytes()).isGreaterThan(textBytes);
+		assertThat(encoded.payload().length).isLessThan(textBytes / 4);
+	}
+}
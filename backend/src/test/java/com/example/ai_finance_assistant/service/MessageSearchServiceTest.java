@@ -0,0 +1,131 @@
+package com.example.ai_finance_assistant.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import org.flywaydb.core.Flyway;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+
+import com.example.ai_finance_assistant.dto.SearchHit;
+import com.example.ai_finance_assistant.dto.SearchPage;
+import com.example.ai_finance_assistant.repository.MessageRepository;
+
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+
+//the search sql is postgres full-text search, so it runs against a real (embedded) postgres with the app's migrations
+class MessageSearchServiceTest {
+
+	private static final UUID SESSION_A = UUID.fromString("46d4928c-5113-438e-b916-d01aeaf99293");
+	private static final UUID SESSION_B = UUID.fromString("9b2f6a53-0c1e-4d7a-8f4b-2a6c1e3d5f70");
+
+	private static EmbeddedPostgres postgres;
+	private static LocalContainerEntityManagerFactoryBean entityManagerFactory;
+	private static MessageRepository messageRepository;
+	private static long conversationA;
+
+	@BeforeAll
+	static void startPostgres() throws IOException {
+		postgres = EmbeddedPostgres.start();
+		Flyway.configure().dataSource(postgres.getPostgresDatabase()).load().migrate();
+
+		entityManagerFactory = new LocalContainerEntityManagerFactoryBean();
+		entityManagerFactory.setDataSource(postgres.getPostgresDatabase());
+		entityManagerFactory.setPackagesToScan("com.example.ai_finance_assistant.entity");
+		entityManagerFactory.setJpaVendorAdapter(new HibernateJpaVendorAdapter());
+		entityManagerFactory.afterPropertiesSet();
+		messageRepository = new JpaRepositoryFactory(
+				SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory.getObject()))
+				.getRepository(MessageRepository.class);
+
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(postgres.getPostgresDatabase());
+		conversationA = conversation(jdbcTemplate, SESSION_A);
+		long conversationB = conversation(jdbcTemplate, SESSION_B);
+		//the same words in every message, so all of them rank the same and only the id orders them
+		for (int i = 0; i < 30; i++) {
+			message(jdbcTemplate, conversationA, "what are index fund fees?", i);
+			message(jdbcTemplate, conversationB, "what are index fund fees?", i);
+		}
+	}
+
+	private static long conversation(JdbcTemplate jdbcTemplate, UUID sessionId) {
+		return jdbcTemplate.queryForObject("INSERT INTO conversations (session_id, created_at) VALUES (?, ?) RETURNING id",
+				Long.class, sessionId, Timestamp.valueOf(LocalDateTime.of(2026, 1, 1, 12, 0)));
+	}
+
+	private static void message(JdbcTemplate jdbcTemplate, long conversationId, String content, int minute) {
+		jdbcTemplate.update("INSERT INTO messages (role, content, tokens, status, created_at, conversation_id) "
+						+ "VALUES ('user', ?, 8, 'COMPLETE', ?, ?)",
+				content, Timestamp.valueOf(LocalDateTime.of(2026, 1, 1, 12, minute)), conversationId);
+	}
+
+	@AfterAll
+	static void stopPostgres() throws IOException {
+		entityManagerFactory.destroy();
+		postgres.close();
+	}
+
+	//every page of a conversation's hits, following the cursors until there is none
+	private static List<SearchPage> allPages(MessageSearchService search, int limit) {
+		List<SearchPage> pages = new ArrayList<>();
+		String cursor = null;
+		do {
+			SearchPage page = search.searchConversation(conversationA, "index fund", cursor, limit);
+			pages.add(page);
+			cursor = page.nextCursor();
+		} while (cursor != null);
+		return pages;
+	}
+
+	//a hit's message, by the minute it was written at
+	private static int minute(SearchHit hit) {
+		return hit.timeStamp().getMinute();
+	}
+
+	private static List<SearchHit> hits(List<SearchPage> pages) {
+		return pages.stream().flatMap(page -> page.hits().stream()).toList();
+	}
+
+	@Test
+	void pagesThroughTiedRanksWithoutSkippingOrRepeatingAHit() {
+		List<SearchHit> hits = hits(allPages(new MessageSearchService(messageRepository, 200, 1000, ""), 7));
+
+		assertThat(hits).extracting(SearchHit::rank).containsOnly(hits.get(0).rank());
+		//every message once, newest first among equals
+		assertThat(hits).extracting(MessageSearchServiceTest::minute)
+				.containsExactlyElementsOf(IntStream.iterate(29, i -> i >= 0, i -> i - 1).boxed().toList());
+	}
+
+	@Test
+	void neverFindsAnotherSessionsMessages() {
+		List<SearchHit> hits = hits(allPages(new MessageSearchService(messageRepository, 200, 1000, ""), 7));
+
+		assertThat(hits).hasSize(30).extracting(SearchHit::sessionID).containsOnly(SESSION_A.toString());
+	}
+
+	@Test
+	void flagsEveryPageOnceTheCandidateCapIsReached() {
+		List<SearchPage> capped = allPages(new MessageSearchService(messageRepository, 200, 25, ""), 7);
+		List<SearchPage> uncapped = allPages(new MessageSearchService(messageRepository, 200, 31, ""), 7);
+
+		//only the newest 25 are ranked
+		assertThat(hits(capped)).extracting(MessageSearchServiceTest::minute)
+				.containsExactlyElementsOf(IntStream.iterate(29, i -> i >= 5, i -> i - 1).boxed().toList());
+		assertThat(capped).extracting(SearchPage::capped).containsOnly(true);
+		assertThat(hits(uncapped)).hasSize(30);
+		assertThat(uncapped).extracting(SearchPage::capped).containsOnly(false);
+	}
+}
@@ -0,0 +1,114 @@
+package com.example.ai_finance_assistant.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.example.ai_finance_assistant.entity.Conversation;
+import com.example.ai_finance_assistant.entity.Message;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class MessageWriteBehindTest {
+
+	private final JdbcTemplate jdbcTemplate = mock(JdbcTemplate.class);
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private MessageWriteBehind writeBehind;
+
+	private MessageWriteBehind writeBehind(Duration maxRetryTime) {
+		writeBehind = new MessageWriteBehind(jdbcTemplate, mock(PlatformTransactionManager.class), 10, 10,
+				Duration.ofMillis(10), maxRetryTime, Duration.ofSeconds(1), meterRegistry);
+		writeBehind.start();
+		return writeBehind;
+	}
+
+	private static Message message(String content) {
+		Conversation conversation = new Conversation();
+		conversation.setId(1L);
+		Message message = new Message("user", content, conversation, 3);
+		message.setCreatedAt(LocalDateTime.of(2026, 1, 1, 12, 0));
+		return message;
+	}
+
+	@SuppressWarnings("unchecked")
+	private int[][] insert() {
+		return jdbcTemplate.batchUpdate(anyString(), any(Collection.class), anyInt(),
+				any(ParameterizedPreparedStatementSetter.class));
+	}
+
+	@AfterEach
+	void stop() {
+		writeBehind.stop();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void keepsRetryingABatchThroughAShortOutage() throws InterruptedException {
+		DataAccessResourceFailureException outage = new DataAccessResourceFailureException("connection refused");
+		when(insert()).thenThrow(outage, outage, outage).thenReturn(new int[][] { { 1 } });
+		writeBehind(Duration.ofMinutes(1)).enqueue(message("what is an index fund?")).block();
+
+		//100 + 200 + 400 ms of backoff
+		Thread.sleep(1500);
+
+		verify(jdbcTemplate, times(4)).batchUpdate(anyString(), any(Collection.class), anyInt(),
+				any(ParameterizedPreparedStatementSetter.class));
+		assertThat(meterRegistry.counter("chat.write_behind.dropped").count()).isZero();
+		assertThat(writeBehind.pending()).isZero();
+	}
+
+	@Test
+	void dropsABatchOnlyAfterTheMaxRetryTime() throws InterruptedException {
+		when(insert()).thenThrow(new DataAccessResourceFailureException("connection refused"));
+		writeBehind(Duration.ofMillis(250)).enqueue(message("what is an index fund?")).block();
+
+		Thread.sleep(100);
+		assertThat(meterRegistry.counter("chat.write_behind.dropped").count()).isZero();
+
+		Thread.sleep(800);
+		assertThat(meterRegistry.counter("chat.write_behind.dropped").count()).isEqualTo(1);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	void dropsOnlyTheMessageTheDatabaseRejects() throws InterruptedException {
+		List<String> written = new CopyOnWriteArrayList<>();
+		when(insert()).thenAnswer(invocation -> {
+			Collection<Message> batch = invocation.getArgument(1);
+			if (batch.stream().anyMatch(message -> message.getContent().contains("\u0000"))) {
+				throw new DataIntegrityViolationException("invalid byte sequence for encoding \"UTF8\": 0x00");
+			}
+			batch.forEach(message -> written.add(message.getContent()));
+			return new int[][] { { 1 } };
+		});
+		MessageWriteBehind writeBehind = writeBehind(Duration.ofMinutes(1));
+		writeBehind.enqueue(message("what is an index fund?")).block();
+		writeBehind.enqueue(message("a\u0000b")).block();
+		writeBehind.enqueue(message("and a bond?")).block();
+
+		Thread.sleep(300);
+
+		//no waiting for a retry that can't work, the other messages are written straight away
+		assertThat(written).containsExactly("what is an index fund?", "and a bond?");
+		assertThat(meterRegistry.counter("chat.write_behind.dropped").count()).isEqualTo(1);
+	}
+}
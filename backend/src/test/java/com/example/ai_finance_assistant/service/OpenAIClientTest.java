@@ -0,0 +1,110 @@
+package com.example.ai_finance_assistant.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+
+import com.example.ai_finance_assistant.config.OpenAIConnectionPoolMetrics;
+import com.example.ai_finance_assistant.dto.openai.OpenAIMessage;
+import com.example.ai_finance_assistant.dto.openai.OpenAIRequest;
+import com.example.ai_finance_assistant.dto.openai.StreamDelta;
+import com.example.ai_finance_assistant.exception.ServiceUnavailableException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import tools.jackson.databind.json.JsonMapper;
+
+class OpenAIClientTest {
+
+	private static final OpenAIRequest REQUEST = new OpenAIRequest("gpt-4o-mini",
+			List.of(new OpenAIMessage("user", "what is an index fund?")), 100, true, null);
+
+	private final AdmissionController admission = new AdmissionController(500, 200_000, 10, Duration.ofSeconds(1), 8,
+			1, 64);
+	//a hedge goes out 50 ms into every call, the budget is never short
+	private final HedgingPolicy hedging = new HedgingPolicy(true, Duration.ofMillis(50), 0.95, Duration.ofSeconds(3),
+			Duration.ofMillis(10), 100, 20, 1, 2, "");
+
+	//upstream is the two stubbed sends, the first call gets the first one and the hedge the second
+	private OpenAIClient client(Flux<StreamDelta> first, Flux<StreamDelta> hedge) {
+		SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+		OpenAIClient client = spy(new OpenAIClient("test", "http://localhost:1",
+				new StreamDeltaParser(JsonMapper.builder().build()), new OpenAIRequestEncoder(), admission, hedging,
+				new TokenCounterService(1000, meterRegistry), new ReactorClientHttpConnector(),
+				new OpenAIConnectionPoolMetrics(), 0, meterRegistry, ObservationRegistry.NOOP));
+		doReturn(first).doReturn(hedge).when(client).send(any());
+		return client;
+	}
+
+	private static Flux<StreamDelta> after(long millis, String content) {
+		return Mono.delay(Duration.ofMillis(millis)).thenMany(Flux.just(new StreamDelta(content, "stop")));
+	}
+
+	private static Flux<StreamDelta> failsAfter(long millis) {
+		return Mono.delay(Duration.ofMillis(millis))
+				.thenMany(Flux.error(new ServiceUnavailableException("OpenAI service unavailable: 503")));
+	}
+
+	@Test
+	void aHedgeThatDeliversFirstCancelsTheSlowCallAndReleasesItsPermit() {
+		AtomicBoolean firstCancelled = new AtomicBoolean();
+		OpenAIClient client = client(after(2000, "slow").doOnCancel(() -> firstCancelled.set(true)), after(20, "fast"));
+
+		StepVerifier.create(client.createChatCompletion(REQUEST))
+				.expectNext("fast")
+				.expectComplete()
+				.verify(Duration.ofSeconds(1));
+
+		assertThat(firstCancelled).isTrue();
+		assertThat(admission.getActive()).isZero();
+		assertThat(hedging.getWonCount()).isEqualTo(1);
+	}
+
+	@Test
+	void aHedgeThatFailsEarlyLeavesTheRaceToTheFirstCall() {
+		OpenAIClient client = client(after(200, "first"), failsAfter(10));
+
+		StepVerifier.create(client.createChatCompletion(REQUEST))
+				.expectNext("first")
+				.expectComplete()
+				.verify(Duration.ofSeconds(1));
+
+		assertThat(admission.getActive()).isZero();
+		assertThat(hedging.getWonCount()).isZero();
+	}
+
+	@Test
+	void aFirstCallThatFailsEarlyLeavesTheRaceToTheHedgeInFlight() {
+		OpenAIClient client = client(failsAfter(100), after(200, "hedge"));
+
+		StepVerifier.create(client.createChatCompletion(REQUEST))
+				.expectNext("hedge")
+				.expectComplete()
+				.verify(Duration.ofSeconds(1));
+
+		assertThat(admission.getActive()).isZero();
+		assertThat(hedging.getWonCount()).isEqualTo(1);
+	}
+
+	@Test
+	void theErrorComesThroughOnceNeitherCallIsLeft() {
+		OpenAIClient client = client(failsAfter(100), failsAfter(150));
+
+		StepVerifier.create(client.createChatCompletion(REQUEST))
+				.expectError(ServiceUnavailableException.class)
+				.verify(Duration.ofSeconds(1));
+
+		assertThat(admission.getActive()).isZero();
+	}
+}
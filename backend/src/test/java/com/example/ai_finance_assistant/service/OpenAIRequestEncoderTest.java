@@ -0,0 +1,70 @@
+package com.example.ai_finance_assistant.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import com.example.ai_finance_assistant.dto.openai.OpenAIMessage;
+import com.example.ai_finance_assistant.dto.openai.OpenAIRequest;
+
+import tools.jackson.databind.json.JsonMapper;
+
+class OpenAIRequestEncoderTest {
+
+	private final OpenAIRequestEncoder encoder = new OpenAIRequestEncoder();
+	private final JsonMapper jsonMapper = JsonMapper.builder().build();
+
+	private static OpenAIRequest request(List<OpenAIMessage> messages) {
+		return new OpenAIRequest("gpt-4o-mini", messages, 500, true, new OpenAIRequest.StreamOptions(true));
+	}
+
+	private String encode(OpenAIRequest request) {
+		DataBuffer buffer = encoder.encode(request, DefaultDataBufferFactory.sharedInstance);
+		try {
+			return buffer.toString(StandardCharsets.UTF_8);
+		} finally {
+			DataBufferUtils.release(buffer);
+		}
+	}
+
+	@Test
+	void writesTheSameJsonAsJackson() {
+		OpenAIRequest request = request(List.of(
+				new OpenAIMessage("system", FinanceService.SYSTEM_PROMPT),
+				new OpenAIMessage("system", FinanceService.SUMMARY_PREFIX + "User is \"30\" and saving €500/month."),
+				new OpenAIMessage("user", "what's a Roth IRA?\t<|endoftext|>"),
+				new OpenAIMessage("assistant", "1. **Taxes**: paid up front\n2. \\ withdrawals are tax-free 🎉"),
+				new OpenAIMessage("user", "and a 401(k)?")));
+
+		String encoded = encode(request);
+
+		assertThat(jsonMapper.readTree(encoded)).isEqualTo(jsonMapper.valueToTree(request));
+		assertThat(encoded).startsWith("{\"model\":\"gpt-4o-mini\",\"max_tokens\":500,\"stream\":true,"
+				+ "\"stream_options\":{\"include_usage\":true},\"messages\":[{\"role\":\"system\"");
+	}
+
+	@Test
+	void sharesOnePrefixAcrossTurnsWithTheSameSystemPrompt() {
+		for (String question : List.of("what is inflation?", "what is a bond?", "what is an ETF?")) {
+			OpenAIRequest request = request(List.of(
+					new OpenAIMessage("system", FinanceService.SYSTEM_PROMPT), new OpenAIMessage("user", question)));
+			assertThat(jsonMapper.readTree(encode(request))).isEqualTo(jsonMapper.valueToTree(request));
+		}
+
+		assertThat(encoder.prefixCount()).isEqualTo(1);
+	}
+
+	@Test
+	void handlesRequestsWithoutASystemMessageOrOptionalFields() {
+		OpenAIRequest request = new OpenAIRequest("gpt-4o-mini",
+				List.of(new OpenAIMessage("user", "hi"), new OpenAIMessage("assistant", "hello")), null, null, null);
+
+		assertThat(jsonMapper.readTree(encode(request))).isEqualTo(jsonMapper.valueToTree(request));
+	}
+}
@@ -0,0 +1,135 @@
+package com.example.ai_finance_assistant.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.r2dbc.core.DatabaseClient;
+
+import com.example.ai_finance_assistant.dto.ConversationSummary;
+import com.example.ai_finance_assistant.entity.Message;
+import com.example.ai_finance_assistant.entity.MessageStatus;
+
+import io.r2dbc.spi.ConnectionFactories;
+import reactor.core.publisher.Flux;
+
+//runs the store against an in-memory h2 (in postgres mode) through r2dbc-h2, the same sql goes to postgres in production
+class R2dbcConversationStoreTest {
+
+	private final DatabaseClient db = DatabaseClient.create(
+			ConnectionFactories.get("r2dbc:h2:mem:///store-" + UUID.randomUUID() + "?options=DB_CLOSE_DELAY=-1;MODE=PostgreSQL"));
+	private final R2dbcConversationStore store = new R2dbcConversationStore(db);
+
+	@BeforeEach
+	void createSchema() {
+		Flux.concat(
+				db.sql("CREATE TABLE conversations (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, "
+						+ "session_id UUID NOT NULL UNIQUE, created_at TIMESTAMP NOT NULL, summary CHARACTER LARGE OBJECT, "
+						+ "summary_tokens INTEGER, summarized_until TIMESTAMP)").then(),
+				db.sql("CREATE TABLE messages (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, "
+						+ "role VARCHAR(255) NOT NULL, content CHARACTER LARGE OBJECT NOT NULL, tokens INTEGER, status VARCHAR(16), "
+						+ "created_at TIMESTAMP NOT NULL, conversation_id BIGINT NOT NULL REFERENCES conversations(id))").then())
+				.blockLast();
+	}
+
+	private Message message(String content, int tokens, int minute) {
+		Message message = new Message("user", content, null, tokens);
+		message.setCreatedAt(LocalDateTime.of(2026, 1, 1, 12, minute));
+		return message;
+	}
+
+	@Test
+	void findsTheSameConversationForASessionAndCreatesItOnlyOnce() {
+		UUID sessionId = UUID.randomUUID();
+
+		Long created = store.findOrCreateConversationId(sessionId).block();
+		Long found = store.findOrCreateConversationId(sessionId).block();
+
+		assertThat(created).isNotNull().isEqualTo(found);
+		assertThat(db.sql("SELECT COUNT(*) AS n FROM conversations").map(row -> row.get("n", Long.class)).one().block())
+				.isEqualTo(1);
+	}
+
+	@Test
+	void concurrentFirstRequestsForASessionShareOneConversation() {
+		UUID sessionId = UUID.randomUUID();
+
+		List<Long> ids = Flux.range(0, 8).flatMap(i -> store.findOrCreateConversationId(sessionId)).collectList().block();
+
+		assertThat(ids).hasSize(8).containsOnly(ids.get(0));
+		assertThat(db.sql("SELECT COUNT(*) AS n FROM conversations").map(row -> row.get("n", Long.class)).one().block())
+				.isEqualTo(1);
+	}
+
+	@Test
+	void returnsTheNewestMessagesThatFitTheBudgetOldestFirst() {
+		Long conversationId = store.findOrCreateConversationId(UUID.randomUUID()).block();
+		Flux.concat(
+				store.saveMessage(conversationId, message("a", 5, 0)),
+				store.saveMessage(conversationId, message("b", 5, 1)),
+				store.saveMessage(conversationId, message("c", 4, 2)),
+				store.saveMessage(conversationId, message("d", 3, 3)))
+				.blockLast();
+
+		List<Message> tail = store.findTokenBudgetedTail(conversationId, 12, 100).block();
+
+		assertThat(tail).extracting(Message::getContent).containsExactly("b", "c", "d");
+		assertThat(tail).allSatisfy(m -> assertThat(m.getId()).isNotNull());
+	}
+
+	@Test
+	void readsBackTheStatusOfEveryMessage() {
+		Long conversationId = store.findOrCreateConversationId(UUID.randomUUID()).block();
+		Message truncated = message("cut off by max_tokens", 5, 1);
+		truncated.setStatus(MessageStatus.TRUNCATED);
+		Message cancelled = message("abandoned half", 5, 2);
+		cancelled.setStatus(MessageStatus.CANCELLED);
+		Flux.concat(
+				store.saveMessage(conversationId, message("complete", 5, 0)),
+				store.saveMessage(conversationId, truncated),
+				store.saveMessage(conversationId, cancelled),
+				//a row from before the status column
+				db.sql("INSERT INTO messages (role, content, tokens, created_at, conversation_id) "
+						+ "VALUES ('user', 'old', 5, TIMESTAMP '2026-01-01 12:03:00', " + conversationId + ")").then())
+				.blockLast();
+
+		assertThat(store.findTokenBudgetedTail(conversationId, 100, 100).block())
+				.extracting(Message::getStatus)
+				.containsExactly(MessageStatus.COMPLETE, MessageStatus.TRUNCATED, MessageStatus.CANCELLED, MessageStatus.COMPLETE);
+		assertThat(store.findMessagesBetween(conversationId, LocalDateTime.of(2026, 1, 1, 12, 0), LocalDateTime.of(2026, 1, 1, 12, 3), 100).block())
+				.extracting(Message::getStatus).containsExactly(MessageStatus.TRUNCATED, MessageStatus.CANCELLED);
+	}
+
+	@Test
+	void alwaysKeepsTheNewestMessageEvenIfItIsOverBudget() {
+		Long conversationId = store.findOrCreateConversationId(UUID.randomUUID()).block();
+		store.saveMessage(conversationId, message("small", 2, 0)).block();
+		store.saveMessage(conversationId, message("huge", 50, 1)).block();
+
+		assertThat(store.findTokenBudgetedTail(conversationId, 10, 100).block())
+				.extracting(Message::getContent).containsExactly("huge");
+	}
+
+	@Test
+	void savesTheSummaryAndFindsTheMessagesItDoesNotCoverYet() {
+		Long conversationId = store.findOrCreateConversationId(UUID.randomUUID()).block();
+		Flux.concat(
+				store.saveMessage(conversationId, message("a", 5, 0)),
+				store.saveMessage(conversationId, message("b", 5, 1)),
+				store.saveMessage(conversationId, message("c", 4, 2)),
+				store.saveMessage(conversationId, message("d", 3, 3)))
+				.blockLast();
+		assertThat(store.findSummary(conversationId).block()).isEqualTo(ConversationSummary.EMPTY);
+
+		ConversationSummary summary = new ConversationSummary("asked about a", 4, LocalDateTime.of(2026, 1, 1, 12, 0));
+		store.saveSummary(conversationId, summary).block();
+
+		assertThat(store.findSummary(conversationId).block()).isEqualTo(summary);
+		assertThat(store.findMessagesBetween(conversationId, summary.summarizedUntil(), LocalDateTime.of(2026, 1, 1, 12, 3), 100).block())
+				.extracting(Message::getContent).containsExactly("b", "c");
+	}
+}
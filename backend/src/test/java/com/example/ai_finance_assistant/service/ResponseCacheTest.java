@@ -0,0 +1,54 @@
+package com.example.ai_finance_assistant.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.example.ai_finance_assistant.dto.openai.OpenAIMessage;
+import com.example.ai_finance_assistant.dto.openai.OpenAIRequest;
+
+class ResponseCacheTest {
+
+	private final ResponseCache cache = new ResponseCache(100, Duration.ofHours(1), 8, Duration.ofMillis(1));
+
+	private static OpenAIRequest request(OpenAIMessage... messages) {
+		return new OpenAIRequest("gpt-4o-mini", List.of(messages), 500, true, new OpenAIRequest.StreamOptions(true));
+	}
+
+	@Test
+	void firstTurnQuestionsShareAnEntryRegardlessOfCaseAndWhitespace() {
+		OpenAIMessage system = new OpenAIMessage("system", FinanceService.SYSTEM_PROMPT);
+		cache.put(request(system, new OpenAIMessage("user", "What is compound interest?")),
+				new ResponseCache.CachedResponse("Interest on interest.", 5));
+
+		assertThat(cache.get(request(system, new OpenAIMessage("user", "  what is   COMPOUND interest?\n"))))
+				.isEqualTo(new ResponseCache.CachedResponse("Interest on interest.", 5));
+		assertThat(cache.get(request(system, new OpenAIMessage("user", "What is simple interest?")))).isNull();
+	}
+
+	@Test
+	void onlyRequestsWithoutHistoryAreCacheable() {
+		OpenAIMessage system = new OpenAIMessage("system", FinanceService.SYSTEM_PROMPT);
+
+		assertThat(cache.isCacheable(request(system, new OpenAIMessage("user", "What is an ETF?")))).isTrue();
+		assertThat(cache.isCacheable(request(system,
+				new OpenAIMessage("user", "What is an ETF?"),
+				new OpenAIMessage("assistant", "An exchange traded fund."),
+				new OpenAIMessage("user", "And a mutual fund?")))).isFalse();
+	}
+
+	@Test
+	void replaysWordAlignedChunksThatAddUpToTheAnswer() {
+		String answer = "1. **Principal**: the amount you start with.\n2. **Rate**: 5% a year.";
+
+		List<String> chunks = cache.replay(answer).collectList().block();
+
+		assertThat(chunks).hasSizeGreaterThan(1);
+		assertThat(String.join("", chunks)).isEqualTo(answer);
+		assertThat(chunks.subList(0, chunks.size() - 1))
+				.allSatisfy(chunk -> assertThat(Character.isWhitespace(chunk.charAt(chunk.length() - 1))).isTrue());
+	}
+}
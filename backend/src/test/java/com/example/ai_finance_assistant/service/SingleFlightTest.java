@@ -0,0 +1,70 @@
+package com.example.ai_finance_assistant.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+class SingleFlightTest {
+
+	private final SingleFlight<String, String> singleFlight = new SingleFlight<>();
+	private final Sinks.Many<String> upstream = Sinks.many().unicast().onBackpressureBuffer();
+	private final AtomicInteger calls = new AtomicInteger();
+	private final AtomicInteger cancels = new AtomicInteger();
+
+	private Flux<String> call(String key) {
+		calls.incrementAndGet();
+		return upstream.asFlux().doOnCancel(cancels::incrementAndGet);
+	}
+
+	@Test
+	void concurrentCallersShareOneCallAndLateJoinersGetTheReplay() {
+		List<String> first = new ArrayList<>();
+		List<String> late = new ArrayList<>();
+
+		singleFlight.execute("q", this::call).subscribe(first::add);
+		upstream.tryEmitNext("a");
+		upstream.tryEmitNext("b");
+		singleFlight.execute("q", this::call).subscribe(late::add);
+		upstream.tryEmitNext("c");
+		upstream.tryEmitComplete();
+
+		assertThat(calls).hasValue(1);
+		assertThat(first).containsExactly("a", "b", "c");
+		assertThat(late).containsExactly("a", "b", "c");
+		assertThat(singleFlight.joined()).isEqualTo(1);
+		assertThat(singleFlight.inFlight()).isZero();
+	}
+
+	@Test
+	void oneCallerCancellingDoesNotCancelTheOthers() {
+		List<String> remaining = new ArrayList<>();
+
+		Disposable leaving = singleFlight.execute("q", this::call).subscribe();
+		singleFlight.execute("q", this::call).subscribe(remaining::add);
+		leaving.dispose();
+		upstream.tryEmitNext("a");
+		upstream.tryEmitComplete();
+
+		assertThat(cancels).hasValue(0);
+		assertThat(remaining).containsExactly("a");
+	}
+
+	@Test
+	void theCallIsCancelledAndForgottenOnceEveryCallerHasLeft() {
+		Disposable first = singleFlight.execute("q", this::call).subscribe();
+		Disposable second = singleFlight.execute("q", this::call).subscribe();
+		first.dispose();
+		second.dispose();
+
+		assertThat(cancels).hasValue(1);
+		assertThat(singleFlight.inFlight()).isZero();
+	}
+}
@@ -0,0 +1,63 @@
+package com.example.ai_finance_assistant.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.Duration;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+class StreamCoalescerTest {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	private StreamCoalescer coalescer(Duration maxDelay, int maxChars) {
+		return new StreamCoalescer(true, maxDelay, maxChars, Schedulers.parallel(), registry);
+	}
+
+	@Test
+	void sendsTheFirstDeltaAloneAndMergesTheRest() {
+		List<String> frames = coalescer(Duration.ofMinutes(1), 1000)
+				.coalesce(Flux.just("Compound", " interest", " is", " interest", " on", " interest."))
+				.collectList().block();
+
+		assertThat(frames).containsExactly("Compound", " interest is interest on interest.");
+		assertThat(registry.get("chat.stream.deltas").summary().totalAmount()).isEqualTo(6);
+		assertThat(registry.get("chat.stream.frames").summary().totalAmount()).isEqualTo(2);
+	}
+
+	@Test
+	void flushesOnceEnoughTextHasPiledUp() {
+		List<String> frames = coalescer(Duration.ofMinutes(1), 4)
+				.coalesce(Flux.just("a", "bb", "cc", "d", "e", "ff", "g"))
+				.collectList().block();
+
+		assertThat(frames).containsExactly("a", "bbcc", "deff", "g");
+	}
+
+	@Test
+	void flushesWhatArrivedWhenTheDelayIsUp() {
+		Flux<String> deltas = Flux.concat(
+				Flux.just("a", "b", "c"),
+				Mono.delay(Duration.ofMillis(300)).thenMany(Flux.just("d", "e")));
+
+		List<String> frames = coalescer(Duration.ofMillis(20), 1000).coalesce(deltas).collectList().block();
+
+		assertThat(frames).containsExactly("a", "bc", "de");
+	}
+
+	@Test
+	void emitsWhatArrivedBeforeAnError() {
+		Flux<String> deltas = Flux.just("a", "b", "c").concatWith(Flux.error(new IllegalStateException("upstream down")));
+
+		List<String> frames = coalescer(Duration.ofMinutes(1), 1000).coalesce(deltas)
+				.onErrorResume(e -> Flux.just("error")).collectList().block();
+
+		assertThat(frames).containsExactly("a", "bc", "error");
+	}
+}
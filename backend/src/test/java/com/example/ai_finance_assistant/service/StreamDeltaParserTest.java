@@ -0,0 +1,86 @@
+package com.example.ai_finance_assistant.service;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import com.example.ai_finance_assistant.dto.openai.StreamDelta;
+
+import reactor.core.publisher.Flux;
+import tools.jackson.databind.json.JsonMapper;
+
+class StreamDeltaParserTest {
+
+	private final StreamDeltaParser parser = new StreamDeltaParser(JsonMapper.builder().build());
+
+	private static final String STREAM = """
+			data: {"id":"c1","object":"chat.completion.chunk","choices":[{"index":0,"delta":{"role":"assistant","content":""},"logprobs":null,"finish_reason":null}]}
+
+			data: {"id":"c1","object":"chat.completion.chunk","choices":[{"index":0,"delta":{"content":"Compound"},"finish_reason":null}]}
+
+			data: {"id":"c1","choices":[{"index":0,"delta":{"content":" interest \\u00e9\\n"},"finish_reason":null},{"index":1,"delta":{"content":"ignored"}}]}
+
+			data: {"id":"c1","choices":[{"index":0,"delta":{},"finish_reason":"stop"}],"usage":null}
+
+			data: [DONE]
+
+			""";
+
+	private List<StreamDelta> decode(byte[] body, int chunkSize) {
+		Flux<DataBuffer> buffers = Flux.range(0, (body.length + chunkSize - 1) / chunkSize)
+				.map(i -> DefaultDataBufferFactory.sharedInstance.wrap(
+						Arrays.copyOfRange(body, i * chunkSize, Math.min(body.length, (i + 1) * chunkSize))));
+		return parser.decode(buffers).collectList().block();
+	}
+
+	@Test
+	void extractsContentAndFinishReasonFromTheFirstChoice() {
+		List<StreamDelta> deltas = decode(STREAM.getBytes(StandardCharsets.UTF_8), 8192);
+
+		assertThat(deltas).containsExactly(
+				new StreamDelta("", null),
+				new StreamDelta("Compound", null),
+				new StreamDelta(" interest é\n", null),
+				new StreamDelta(null, "stop"));
+	}
+
+	@Test
+	void handlesFramesSplitAcrossBuffers() {
+		byte[] body = (STREAM.replace("\\u00e9", "é")).getBytes(StandardCharsets.UTF_8);
+
+		//every split point, including the middle of the two byte é
+		for (int chunkSize = 1; chunkSize < 40; chunkSize++) {
+			assertThat(decode(body, chunkSize)).extracting(StreamDelta::content)
+					.containsExactly("", "Compound", " interest é\n", null);
+		}
+	}
+
+	@Test
+	void readsUsageFromTheFinalChunk() {
+		String body = "data: {\"id\":\"c1\",\"choices\":[],\"usage\":{\"prompt_tokens\":412,\"completion_tokens\":37,"
+				+ "\"total_tokens\":449,\"prompt_tokens_details\":{\"cached_tokens\":0}}}\n\ndata: [DONE]\n\n";
+
+		List<StreamDelta> deltas = decode(body.getBytes(StandardCharsets.UTF_8), 8192);
+
+		assertThat(deltas).containsExactly(new StreamDelta(null, null, new StreamDelta.Usage(412, 37)));
+	}
+
+	@Test
+	void countsMalformedFramesInsteadOfFailingTheStream() {
+		String body = "data: {\"choices\":[{\"delta\":{\"content\":\"a\"}}]}\r\n\r\n"
+				+ "data: {\"choices\":[{\"delta\":{\"content\":\n\n"
+				+ "data: not json\n\n"
+				+ "data: {\"choices\":[{\"delta\":{\"content\":\"b\"}}]}\n\n";
+
+		List<StreamDelta> deltas = decode(body.getBytes(StandardCharsets.UTF_8), 16);
+
+		assertThat(deltas).extracting(StreamDelta::content).containsExactly("a", "b");
+		assertThat(parser.getMalformedFrameCount()).isEqualTo(2);
+	}
+}
@@ -6,6 +6,8 @@ import ErrorMessage from './ErrorMessage';
 
 const rawBaseUrl = process.env.REACT_APP_API_URL || "http://localhost:8080";
 const baseUrl = rawBaseUrl.replace(/\/+$/, "");
+// how many times a dropped answer stream is resumed before giving up
+const MAX_RESUME_ATTEMPTS = 3;
 
 function App() {
   const [message, setMessage] = useState('');
@@ -33,13 +35,18 @@ function App() {
       setSessionID(id);
 
       try {
-        const res = await fetch(
-          `${baseUrl}/api/chat/history/${id}`
-        );
-        if (res.ok) {
-          const history = await res.json();
-          setChatHistory(history);
-        }
+        //history comes in pages, the next page's cursor is in the X-Next-Cursor header
+        let history = [];
+        let cursor = null;
+        do {
+          const res = await fetch(
+            `${baseUrl}/api/chat/history/${id}` + (cursor ? `?cursor=${encodeURIComponent(cursor)}` : '')
+          );
+          if (!res.ok) break;
+          history = history.concat(await res.json());
+          cursor = res.headers.get('X-Next-Cursor');
+        } while (cursor);
+        setChatHistory(history);
       } catch (err) {
         console.error('Failed to load history:', err);
       } finally {
@@ -96,65 +103,85 @@ function App() {
       timestamp
     }]);
 
+    let assistantMessage = '';
+    // id of the last event we got, a dropped connection resumes after it instead of starting a new answer
+    let lastEventId = null;
+
+    const handleEvent = (event) => {
+      const { id, data } = parseEvent(event);
+      if (id !== null) lastEventId = id;
+      if (data === null) return;
+      assistantMessage += data;
+      setResponse(assistantMessage);
+    };
+
     try {
-      const res = await fetch(`${baseUrl}/api/chat/stream`, {
-        method: 'POST',
-        headers: { 'Content-Type': 'application/json' },
-        body: JSON.stringify({ message: userMessage, sessionID })
-      });
-
-      // Handle HTTP errors
-      if (!res.ok) {
-        const errorData = await res.json().catch(() => ({ message: `Error ${res.status}` }));
-        setError({ message: errorData.message });
-        setLoading(false);
-        return;
-      }
+      for (let attempt = 0; ; attempt++) {
+        const headers = { 'Content-Type': 'application/json' };
+        if (lastEventId) headers['Last-Event-ID'] = lastEventId;
+
+        try {
+          const res = await fetch(`${baseUrl}/api/chat/stream`, {
+            method: 'POST',
+            headers,
+            body: JSON.stringify({ message: userMessage, sessionID })
+          });
+
+          // Handle HTTP errors
+          if (!res.ok) {
+            const errorData = await res.json().catch(() => ({ message: `Error ${res.status}` }));
+            setError({ message: errorData.message });
+            break;
+          }
 
-      // Stream response
-      const reader = res.body.getReader();
-      const decoder = new TextDecoder("utf-8");
-      let buffer = '';
-      let assistantMessage = '';
-
-      while (true) {
-        const { done, value } = await reader.read();
-        if (done) break;
-
-        buffer += decoder.decode(value, { stream: true });
-        const events = buffer.split("\n\n");
-        buffer = events.pop() || "";
-
-        for (const event of events) {
-          const lines = event.split("\n");
-          for (const line of lines) {
-            if (!line.startsWith("data:")) continue;
-            let token = line.slice(5);
-            if (token === "") token = "\n";
-            assistantMessage += token;
-            setResponse(assistantMessage);
+          // Stream response
+          const reader = res.body.getReader();
+          const decoder = new TextDecoder("utf-8");
+          let buffer = '';
+
+          while (true) {
+            const { done, value } = await reader.read();
+            if (done) break;
+
+            buffer += decoder.decode(value, { stream: true });
+            const events = buffer.split("\n\n");
+            buffer = events.pop() || "";
+            events.forEach(handleEvent);
           }
-        }
-      }
+          handleEvent(buffer);
+          break;
 
-      if (buffer.startsWith("data:")) {
-        assistantMessage += buffer.slice(5);
-        setResponse(assistantMessage);
+        } catch (error) {
+          // the connection dropped mid-answer: the server keeps generating, pick it up where we left off
+          if (!lastEventId || attempt >= MAX_RESUME_ATTEMPTS) throw error;
+          await new Promise(resolve => setTimeout(resolve, 1000 * (attempt + 1)));
+        }
       }
+    } catch (error) {
+      setError({ message: "Cannot connect to server. Check your connection." });
+    }
 
+    if (assistantMessage) {
       setChatHistory(prev => [...prev, {
         role: "assistant",
         content: assistantMessage
       }]);
-      setResponse('');
-
-    } catch (error) {
-      setError({ message: "Cannot connect to server. Check your connection." });
     }
-
+    setResponse('');
     setLoading(false);
   };
 
+  // an event's id and text: a chunk with line breaks arrives as one data: line per line, joined back with "\n"
+  const parseEvent = (event) => {
+    const lines = event.split("\n");
+    const idLine = lines.find(line => line.startsWith("id:"));
+    const dataLines = lines.filter(line => line.startsWith("data:"));
+    return {
+      id: idLine ? idLine.slice(3) : null,
+      data: dataLines.length ? dataLines.map(line => line.slice(5)).join("\n") : null
+    };
+  };
+
   const formatTime = (timestamp) => {
     const date = new Date(timestamp);
     return date.toLocaleTimeString('en-US', {